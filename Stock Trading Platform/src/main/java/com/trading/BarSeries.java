@@ -0,0 +1,149 @@
+package com.trading;
+
+/**
+ * Fixed-capacity ring of open/high/low/close/volume bars for one interval.
+ *
+ * Bars are held in parallel primitive arrays and updated in place as prices
+ * and trades arrive, so a series never allocates after construction. Once full, each
+ * new bar overwrites the oldest one. Index 0 is the oldest retained bar.
+ */
+public class BarSeries {
+    private final long intervalMillis;
+    private final int capacity;
+    private final long[] starts;
+    private final double[] opens;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] closes;
+    private final long[] volumes;
+    private long count;
+
+    /**
+     * Create an empty series.
+     *
+     * @param intervalMillis Length of one bar in milliseconds
+     * @param capacity Number of bars retained
+     */
+    public BarSeries(long intervalMillis, int capacity) {
+        if (intervalMillis <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Bar interval and capacity must be positive");
+        }
+        this.intervalMillis = intervalMillis;
+        this.capacity = capacity;
+        this.starts = new long[capacity];
+        this.opens = new double[capacity];
+        this.highs = new double[capacity];
+        this.lows = new double[capacity];
+        this.closes = new double[capacity];
+        this.volumes = new long[capacity];
+    }
+
+    /**
+     * Fold a price tick into the bar covering its timestamp.
+     */
+    public void update(long timestamp, double price) {
+        update(timestamp, price, 0);
+    }
+
+    /**
+     * Fold a price and traded volume into the bar covering its timestamp,
+     * starting a new bar when the timestamp falls past the current one.
+     * Anything older than the current bar is folded into it.
+     */
+    public void update(long timestamp, double price, long volume) {
+        long start = timestamp - Math.floorMod(timestamp, intervalMillis);
+        if (count > 0) {
+            int slot = (int) ((count - 1) % capacity);
+            if (start <= starts[slot]) {
+                highs[slot] = Math.max(highs[slot], price);
+                lows[slot] = Math.min(lows[slot], price);
+                closes[slot] = price;
+                volumes[slot] += volume;
+                return;
+            }
+        }
+        int slot = (int) (count % capacity);
+        starts[slot] = start;
+        opens[slot] = price;
+        highs[slot] = price;
+        lows[slot] = price;
+        closes[slot] = price;
+        volumes[slot] = volume;
+        count++;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of bars currently retained.
+     */
+    public int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Bar " + index + " of " + size());
+        }
+        return (int) ((count - size() + index) % capacity);
+    }
+
+    public long startAt(int index) {
+        return starts[slot(index)];
+    }
+
+    public double openAt(int index) {
+        return opens[slot(index)];
+    }
+
+    public double highAt(int index) {
+        return highs[slot(index)];
+    }
+
+    public double lowAt(int index) {
+        return lows[slot(index)];
+    }
+
+    public double closeAt(int index) {
+        return closes[slot(index)];
+    }
+
+    public long volumeAt(int index) {
+        return volumes[slot(index)];
+    }
+
+    /**
+     * Start time of the oldest retained bar, or Long.MAX_VALUE if empty.
+     */
+    public long getEarliestStart() {
+        return isEmpty() ? Long.MAX_VALUE : startAt(0);
+    }
+
+    /**
+     * Index of the last bar starting at or before the given time, or -1 if
+     * every retained bar starts later.
+     */
+    public int indexAtOrBefore(long timestamp) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startAt(mid) <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+}
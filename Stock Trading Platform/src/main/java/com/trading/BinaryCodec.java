@@ -0,0 +1,272 @@
+package com.trading;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, versioned binary format for account state.
+ *
+ * Version 3 (snapshot): magic, version, journal sequence, history base, then
+ * each account's name, balances, holdings, net amount invested and the cost
+ * basis and realized profit/loss of every symbol traded. Counts and
+ * quantities are varints and stock symbols are interned on first use.
+ */
+final class BinaryCodec {
+    static final int MAGIC = 0x53545053; // "STPS"
+    static final byte SNAPSHOT_VERSION = 3;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Write a snapshot to a file and force it to disk.
+     */
+    static void writeSnapshot(Path file, Snapshot snapshot, long historyBase) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Encoder out = new Encoder(channel);
+            out.putInt(MAGIC);
+            out.putByte(SNAPSHOT_VERSION);
+            out.putLong(snapshot.getSequence());
+            out.putLong(historyBase);
+            out.putVarInt(snapshot.getAccounts().size());
+            for (Snapshot.Account account : snapshot.getAccounts()) {
+                out.putString(account.getUserId());
+                out.putString(account.getName());
+                out.putDouble(account.getBalance());
+                out.putDouble(account.getInitialBalance());
+                out.putVarInt(account.getHoldings().size());
+                for (Map.Entry<String, Integer> holding : account.getHoldings().entrySet()) {
+                    out.putSymbol(holding.getKey());
+                    out.putVarInt(holding.getValue());
+                }
+                out.putDouble(account.getNetInvested());
+                out.putVarInt(account.getPositions().size());
+                for (Map.Entry<String, Portfolio.Position> position : account.getPositions().entrySet()) {
+                    out.putSymbol(position.getKey());
+                    out.putDouble(position.getValue().getCostBasis());
+                    out.putDouble(position.getValue().getRealizedProfitLoss());
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Read a snapshot from a file.
+     */
+    static Snapshot readSnapshot(Path file) throws IOException {
+        ByteBuffer data = readHeader(file, SNAPSHOT_VERSION);
+        Decoder in = new Decoder(data);
+        long sequence = data.getLong();
+        long historyBase = data.getLong();
+        int count = in.getVarInt();
+        List<Snapshot.Account> accounts = new ArrayList<>(count);
+        for (int a = 0; a < count; a++) {
+            String userId = in.getString();
+            String name = in.getString();
+            double balance = data.getDouble();
+            double initialBalance = data.getDouble();
+            int holdingCount = in.getVarInt();
+            Map<String, Integer> holdings = new HashMap<>(holdingCount * 2);
+            for (int h = 0; h < holdingCount; h++) {
+                String symbol = in.getSymbol();
+                holdings.put(symbol, in.getVarInt());
+            }
+            double netInvested = data.getDouble();
+            int positionCount = in.getVarInt();
+            Map<String, Portfolio.Position> positions = new HashMap<>(positionCount * 2);
+            for (int p = 0; p < positionCount; p++) {
+                String symbol = in.getSymbol();
+                double costBasis = data.getDouble();
+                positions.put(symbol, new Portfolio.Position(costBasis, data.getDouble()));
+            }
+            accounts.add(new Snapshot.Account(userId, name, balance, initialBalance, holdings,
+                    netInvested, positions));
+        }
+        return new Snapshot(sequence, historyBase, accounts);
+    }
+
+    private static ByteBuffer readHeader(Path file, byte expectedVersion) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = ByteBuffer.allocate((int) channel.size());
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // Keep reading until the whole file is buffered
+            }
+            data.flip();
+        }
+        if (data.remaining() < 5 || data.getInt() != MAGIC) {
+            throw new IOException("Not a trading data file: " + file);
+        }
+        byte version = data.get();
+        if (version != expectedVersion) {
+            throw new IOException("Unsupported data file version " + version + ": " + file);
+        }
+        return data;
+    }
+
+    /**
+     * Convert a local date-time in the system time zone to nanoseconds since
+     * the epoch (UTC).
+     */
+    static long toEpochNanos(LocalDateTime timestamp) {
+        Instant instant = timestamp.atZone(ZoneId.systemDefault()).toInstant();
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    /**
+     * Convert nanoseconds since the epoch to a local date-time in the system
+     * time zone, for display.
+     */
+    static LocalDateTime fromEpochNanos(long nanos) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+                Math.floorMod(nanos, 1_000_000_000L)), ZoneId.systemDefault());
+    }
+
+    /**
+     * Buffered writer over a file channel.
+     */
+    private static class Encoder {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        private final Map<String, Integer> symbols = new HashMap<>();
+
+        Encoder(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void putVarInt(int value) throws IOException {
+            putVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void putVarLong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarInt(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        /**
+         * Symbol reference: 0 followed by the text on first use, else index + 1.
+         */
+        void putSymbol(String symbol) throws IOException {
+            Integer index = symbols.get(symbol);
+            if (index != null) {
+                putVarInt(index + 1);
+            } else {
+                symbols.put(symbol, symbols.size());
+                putVarInt(0);
+                putString(symbol);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Reader over a fully buffered file.
+     */
+    private static class Decoder {
+        private final ByteBuffer data;
+        private final List<String> symbols = new ArrayList<>();
+
+        Decoder(ByteBuffer data) {
+            this.data = data;
+        }
+
+        int getVarInt() {
+            return (int) getVarLong();
+        }
+
+        long getVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        String getString() {
+            int length = getVarInt();
+            String value = new String(data.array(), data.arrayOffset() + data.position(), length,
+                    StandardCharsets.UTF_8);
+            data.position(data.position() + length);
+            return value;
+        }
+
+        String getSymbol() {
+            int reference = getVarInt();
+            if (reference > 0) {
+                return symbols.get(reference - 1);
+            }
+            String symbol = getString();
+            symbols.add(symbol);
+            return symbol;
+        }
+    }
+}
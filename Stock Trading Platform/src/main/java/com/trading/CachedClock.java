@@ -0,0 +1,102 @@
+package com.trading;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wall clock that is read from a cached field instead of the operating
+ * system.
+ *
+ * A single daemon thread refreshes the time every millisecond (set with
+ * -Dtrading.clockResolutionMillis), so reading the clock on a hot path is
+ * one volatile load with no system call and no allocation. Readings are
+ * coarse: the time can lag by up to one refresh and several readings in a
+ * row may be equal. Get the clock from {@link #systemDefault()}, and one for
+ * another zone from {@link #withZone}; all of them share that thread. This
+ * is the market's default clock; simulations use a {@link SimulatedClock}
+ * instead.
+ */
+public class CachedClock extends Clock {
+    private static final long RESOLUTION_MILLIS =
+            Math.max(1L, Long.getLong("trading.clockResolutionMillis", 1L));
+    private static CachedClock systemDefault;
+
+    /**
+     * The cached time and the thread refreshing it, shared by every cached
+     * clock.
+     */
+    private static final class Ticker implements Runnable {
+        volatile long millis = System.currentTimeMillis();
+
+        @Override
+        public void run() {
+            long periodNanos = RESOLUTION_MILLIS * 1_000_000L;
+            while (true) {
+                LockSupport.parkNanos(periodNanos);
+                millis = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private final Ticker ticker;
+    private final ZoneId zone;
+
+    private CachedClock(Ticker ticker, ZoneId zone) {
+        this.ticker = ticker;
+        this.zone = zone;
+    }
+
+    /**
+     * Shared clock in the system default zone; the first call starts the
+     * refresh thread.
+     */
+    public static synchronized CachedClock systemDefault() {
+        if (systemDefault == null) {
+            Ticker ticker = new Ticker();
+            Thread thread = new Thread(ticker, "cached-clock");
+            thread.setDaemon(true);
+            thread.start();
+            systemDefault = new CachedClock(ticker, ZoneId.systemDefault());
+        }
+        return systemDefault;
+    }
+
+    @Override
+    public long millis() {
+        return ticker.millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(ticker.millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * The same clock in another zone, read from this clock's refresh thread
+     * rather than starting one of its own.
+     */
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return zone.equals(this.zone) ? this : new CachedClock(ticker, zone);
+    }
+
+    /**
+     * Current time of any clock as nanoseconds since the epoch (UTC), the
+     * form {@link Transaction} stores. A cached clock is read without
+     * allocating.
+     */
+    static long epochNanos(Clock clock) {
+        if (clock instanceof CachedClock) {
+            return clock.millis() * 1_000_000L;
+        }
+        Instant instant = clock.instant();
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+}
@@ -1,19 +1,42 @@
 package com.trading;
 
 import java.io.*;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * File I/O module for persisting portfolio and user data.
- * Uses simple text-based serialization.
+ *
+ * Every registration, trade and performance snapshot is appended to a
+ * {@link TradeJournal}, which doubles as the permanent account history.
+ * Compact {@link Snapshot}s of balances and holdings are written now and
+ * then, optionally in the background. Startup loads the latest snapshot and
+ * replays only the journal records after it; older transaction and
+ * performance history is read from the journal when first needed.
+ *
+ * Files written by earlier versions (Java-serialized users.dat and
+ * portfolios.dat) are migrated on first load: their history is moved into
+ * an archive journal and a snapshot is written in their place.
  */
 public class DataPersistence {
     private String dataDir;
     private String usersFile;
     private String portfoliosFile;
+    private String snapshotFile;
+    private Path archiveDir;
+    private TradeJournal journal;
+    private long historyBase;
+    private long lastSnapshotSequence = -1;
+    private ScheduledExecutorService snapshotScheduler;
 
     /**
      * Initialize persistence manager.
@@ -22,7 +45,14 @@ public class DataPersistence {
         this.dataDir = dataDir;
         this.usersFile = dataDir + File.separator + "users.dat";
         this.portfoliosFile = dataDir + File.separator + "portfolios.dat";
+        this.snapshotFile = dataDir + File.separator + "snapshot.bin";
+        this.archiveDir = Paths.get(dataDir, "history");
         ensureDataDir();
+        try {
+            this.journal = new TradeJournal(Paths.get(dataDir, "journal"));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open trade journal in " + dataDir, e);
+        }
     }
 
     public DataPersistence() {
@@ -37,85 +67,237 @@ public class DataPersistence {
     }
 
     /**
-     * Save all users to file using Java serialization.
+     * Write a snapshot of balances and holdings. The snapshot is written to a
+     * temporary file and atomically renamed, so a crash never leaves a
+     * partial snapshot behind. A snapshot older than the last one written
+     * is skipped.
+     *
+     * @return true if the snapshot was written
      */
-    public boolean saveUsers(Map<String, User> users) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                new FileOutputStream(usersFile))) {
-            oos.writeObject(users);
+    public synchronized boolean saveSnapshot(Snapshot snapshot) {
+        if (snapshot.getSequence() < lastSnapshotSequence) {
+            return false;
+        }
+        Path temp = Paths.get(snapshotFile + ".tmp");
+        try {
+            journal.commit();
+            BinaryCodec.writeSnapshot(temp, snapshot, historyBase);
+            Files.move(temp, Paths.get(snapshotFile), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            lastSnapshotSequence = snapshot.getSequence();
             return true;
         } catch (Exception e) {
-            System.err.println("Error saving users: " + e.getMessage());
+            System.err.println("Error saving snapshot: " + e.getMessage());
             return false;
         }
     }
 
     /**
-     * Load all users from file.
+     * Write snapshots in the background at a fixed interval.
+     *
+     * @param intervalSeconds Seconds between snapshots
+     * @param source Captures a consistent snapshot of the live accounts
      */
-    @SuppressWarnings("unchecked")
-    public Map<String, User> loadUsers() {
-        if (!Files.exists(Paths.get(usersFile))) {
-            return new HashMap<>();
+    public synchronized void startSnapshots(long intervalSeconds, Supplier<Snapshot> source) {
+        if (snapshotScheduler != null) {
+            return;
         }
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> saveSnapshot(source.get()),
+                intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
 
-        try (ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(usersFile))) {
-            return (Map<String, User>) ois.readObject();
-        } catch (Exception e) {
-            System.err.println("Error loading users: " + e.getMessage());
-            return new HashMap<>();
+    /**
+     * Make every journaled change durable. Cost depends only on the records
+     * appended since the last commit.
+     */
+    public boolean commit() {
+        try {
+            journal.commit();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error committing journal: " + e.getMessage());
+            return false;
         }
     }
 
     /**
-     * Save all portfolios to file.
+     * Load balances and holdings from the latest snapshot, migrating files
+     * from earlier versions first if needed. History is attached lazily.
+     * Call {@link #replayJournal} afterwards to apply later changes.
      */
-    public boolean savePortfolios(Map<String, Portfolio> portfolios) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                new FileOutputStream(portfoliosFile))) {
-            oos.writeObject(portfolios);
-            return true;
+    public DataLoadResult loadAll() {
+        Map<String, User> users = new HashMap<>();
+        Map<String, Portfolio> portfolios = new HashMap<>();
+        if (!Files.exists(Paths.get(snapshotFile))) {
+            migrateLegacyFiles();
+        }
+        if (!Files.exists(Paths.get(snapshotFile))) {
+            return new DataLoadResult(users, portfolios, 0);
+        }
+
+        Snapshot snapshot;
+        try {
+            snapshot = BinaryCodec.readSnapshot(Paths.get(snapshotFile));
         } catch (Exception e) {
-            System.err.println("Error saving portfolios: " + e.getMessage());
-            return false;
+            System.err.println("Error loading snapshot: " + e.getMessage());
+            return new DataLoadResult(users, portfolios, 0);
+        }
+        historyBase = snapshot.getHistoryBase();
+        for (Snapshot.Account account : snapshot.getAccounts()) {
+            User user = new User(account.getUserId(), account.getName(), account.getInitialBalance());
+            user.setBalance(account.getBalance());
+            Portfolio portfolio = new Portfolio(account.getUserId(), user.transactionLog());
+            account.getHoldings().forEach(portfolio::restoreHolding);
+            DeferredHistory history = new DeferredHistory(this, snapshot.getSequence(), user, portfolio);
+            user.setDeferredHistory(history);
+            portfolio.setDeferredHistory(history);
+            account.getPositions().forEach(portfolio::restorePosition);
+            portfolio.restoreNetInvested(account.getNetInvested());
+            user.restoreTotalInvested(account.getNetInvested());
+            users.put(account.getUserId(), user);
+            portfolios.put(account.getUserId(), portfolio);
         }
+        return new DataLoadResult(users, portfolios, snapshot.getSequence());
     }
 
     /**
-     * Load all portfolios from file.
+     * Replay journal records written after the given snapshot sequence.
+     *
+     * @return Sequence number of the last record in the journal
      */
-    @SuppressWarnings("unchecked")
-    public Map<String, Portfolio> loadPortfolios() {
-        if (!Files.exists(Paths.get(portfoliosFile))) {
-            return new HashMap<>();
+    public long replayJournal(long afterSequence, TradeJournal.Visitor visitor) {
+        try {
+            return journal.replay(afterSequence, visitor);
+        } catch (IOException e) {
+            System.err.println("Error replaying journal: " + e.getMessage());
+            return afterSequence;
         }
+    }
+
+    /**
+     * Replay one user's history up to and including the given journal
+     * sequence: the migrated archive first, read without opening it for
+     * writing, then the journal.
+     */
+    void replayHistory(long throughSequence, String userId, TradeJournal.Visitor visitor) {
+        try {
+            if (Files.isDirectory(archiveDir)) {
+                TradeJournal.replayDirectory(archiveDir, 0, Long.MAX_VALUE, userId, visitor);
+            }
+            journal.replay(historyBase, throughSequence, userId, visitor);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read account history", e);
+        }
+    }
 
-        try (ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(portfoliosFile))) {
-            return (Map<String, Portfolio>) ois.readObject();
+    /**
+     * Convert files from earlier versions into an archive journal holding
+     * their history plus a snapshot of their balances and holdings, then set
+     * the old files aside.
+     */
+    private void migrateLegacyFiles() {
+        DataLoadResult result;
+        try {
+            result = readLegacyFiles();
         } catch (Exception e) {
-            System.err.println("Error loading portfolios: " + e.getMessage());
-            return new HashMap<>();
+            System.err.println("Error loading legacy data: " + e.getMessage());
+            return;
+        }
+        if (result == null) {
+            return;
+        }
+
+        try {
+            clearArchive();
+            try (TradeJournal archive = new TradeJournal(archiveDir)) {
+                for (User user : result.getUsers().values()) {
+                    for (Transaction transaction : user.getTransactionHistory()) {
+                        archive.appendTrade(transaction);
+                    }
+                }
+                for (Portfolio portfolio : result.getPortfolios().values()) {
+                    for (Portfolio.PerformancePoint point : portfolio.getPerformanceHistory()) {
+                        archive.appendPerformance(portfolio.getUserId(), point);
+                    }
+                }
+            }
+            historyBase = result.getSequence();
+            Snapshot snapshot = Snapshot.capture(result.getSequence(), result.getUsers(), result.getPortfolios());
+            if (!saveSnapshot(snapshot)) {
+                return;
+            }
+            for (String legacy : new String[]{usersFile, portfoliosFile}) {
+                if (Files.exists(Paths.get(legacy))) {
+                    Files.move(Paths.get(legacy), Paths.get(legacy + ".migrated"),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            System.out.println("Migrated saved data to the snapshot format.");
+        } catch (IOException e) {
+            System.err.println("Error migrating legacy data: " + e.getMessage());
         }
     }
 
     /**
-     * Save both users and portfolios.
+     * Read the users.dat and portfolios.dat files an earlier version left
+     * behind.
+     *
+     * @return Loaded state, or null if there is none
      */
-    public boolean saveAll(Map<String, User> users, Map<String, Portfolio> portfolios) {
-        boolean usersOk = saveUsers(users);
-        boolean portfoliosOk = savePortfolios(portfolios);
-        return usersOk && portfoliosOk;
+    private DataLoadResult readLegacyFiles() throws IOException, ClassNotFoundException {
+        LegacyDataReader reader = new LegacyDataReader();
+        if (Files.exists(Paths.get(usersFile)) || Files.exists(Paths.get(portfoliosFile))) {
+            Map<String, User> users = Files.exists(Paths.get(usersFile))
+                    ? reader.readUsers(usersFile) : new HashMap<>();
+            Map<String, Portfolio> portfolios = Files.exists(Paths.get(portfoliosFile))
+                    ? reader.readPortfolios(portfoliosFile) : new HashMap<>();
+            return new DataLoadResult(users, portfolios, 0);
+        }
+        return null;
+    }
+
+    private void clearArchive() throws IOException {
+        if (!Files.isDirectory(archiveDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(archiveDir)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
     }
 
     /**
-     * Load both users and portfolios.
+     * Directory holding the memory-mapped price history of each symbol.
      */
-    public DataLoadResult loadAll() {
-        Map<String, User> users = loadUsers();
-        Map<String, Portfolio> portfolios = loadPortfolios();
-        return new DataLoadResult(users, portfolios);
+    public Path getPriceHistoryDir() {
+        return Paths.get(dataDir, "prices");
+    }
+
+    public TradeJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Stop background snapshots, then flush and close the journal.
+     */
+    public void close() {
+        synchronized (this) {
+            if (snapshotScheduler != null) {
+                snapshotScheduler.shutdown();
+                snapshotScheduler = null;
+            }
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error closing journal: " + e.getMessage());
+        }
     }
 
     /**
@@ -124,10 +306,12 @@ public class DataPersistence {
     public static class DataLoadResult {
         private Map<String, User> users;
         private Map<String, Portfolio> portfolios;
+        private long sequence;
 
-        public DataLoadResult(Map<String, User> users, Map<String, Portfolio> portfolios) {
+        public DataLoadResult(Map<String, User> users, Map<String, Portfolio> portfolios, long sequence) {
             this.users = users;
             this.portfolios = portfolios;
+            this.sequence = sequence;
         }
 
         public Map<String, User> getUsers() {
@@ -137,6 +321,12 @@ public class DataPersistence {
         public Map<String, Portfolio> getPortfolios() {
             return portfolios;
         }
+
+        /**
+         * Journal sequence number the loaded state is current up to.
+         */
+        public long getSequence() {
+            return sequence;
+        }
     }
 }
-
@@ -0,0 +1,57 @@
+package com.trading;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transaction and performance history of an account restored from a
+ * snapshot. Nothing is read until the user or portfolio first needs it;
+ * the history is then read from the journal up to the snapshot's sequence
+ * number and placed in front of anything recorded since.
+ */
+class DeferredHistory {
+    private final DataPersistence persistence;
+    private final long throughSequence;
+    private final User user;
+    private final Portfolio portfolio;
+    private boolean loaded;
+
+    DeferredHistory(DataPersistence persistence, long throughSequence, User user, Portfolio portfolio) {
+        this.persistence = persistence;
+        this.throughSequence = throughSequence;
+        this.user = user;
+        this.portfolio = portfolio;
+    }
+
+    /**
+     * Load the older history into the user and portfolio if not done yet.
+     */
+    synchronized void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        String userId = user.getUserId();
+        List<Transaction> transactions = new ArrayList<>();
+        PerformanceSeries performance = new PerformanceSeries();
+        persistence.replayHistory(throughSequence, userId, new TradeJournal.Visitor() {
+            @Override
+            public void onRegister(String registeredId, String name, double initialBalance) {
+                // Registration is already reflected in the snapshot
+            }
+
+            @Override
+            public void onTrade(Transaction transaction) {
+                transactions.add(transaction);
+            }
+
+            @Override
+            public void onPerformance(String recordedId, long timestampMillis, double value) {
+                performance.append(timestampMillis, value);
+            }
+        });
+        loaded = true;
+        // The user and portfolio share one transaction log
+        user.prependHistory(transactions);
+        portfolio.prependPerformance(performance);
+    }
+}
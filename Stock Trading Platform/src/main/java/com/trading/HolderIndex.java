@@ -0,0 +1,56 @@
+package com.trading;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reverse index from stock symbol to the portfolios currently holding it.
+ *
+ * Portfolios report a position opening or closing as it happens, so the
+ * index changes only on those transitions rather than on every trade. Sets
+ * are concurrent because accounts under different locks can open the same
+ * symbol at the same time.
+ */
+public class HolderIndex {
+    private final Map<String, Set<Portfolio>> holders = new ConcurrentHashMap<>();
+
+    /**
+     * Start indexing a portfolio, including everything it already holds.
+     */
+    public void attach(Portfolio portfolio) {
+        portfolio.setHolderIndex(this);
+        for (String symbol : portfolio.getHoldings().keySet()) {
+            opened(symbol, portfolio);
+        }
+    }
+
+    void opened(String symbol, Portfolio portfolio) {
+        holders.computeIfAbsent(symbol, key -> ConcurrentHashMap.newKeySet()).add(portfolio);
+    }
+
+    void closed(String symbol, Portfolio portfolio) {
+        Set<Portfolio> set = holders.get(symbol);
+        if (set != null) {
+            set.remove(portfolio);
+        }
+    }
+
+    /**
+     * Live, read-only view of the portfolios holding a symbol.
+     */
+    public Collection<Portfolio> holdersOf(String symbol) {
+        Set<Portfolio> set = holders.get(symbol.toUpperCase());
+        return set != null ? Collections.unmodifiableSet(set) : Collections.emptySet();
+    }
+
+    /**
+     * Number of portfolios holding a symbol.
+     */
+    public int countHolders(String symbol) {
+        Set<Portfolio> set = holders.get(symbol.toUpperCase());
+        return set != null ? set.size() : 0;
+    }
+}
@@ -0,0 +1,258 @@
+package com.trading;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Share quantities keyed by {@link SymbolTable} ID.
+ *
+ * Open addressing with linear probing and backward-shift deletion over a
+ * pair of primitive arrays, so updates never box and a lookup is a probe or
+ * two. ID 0 is never assigned and marks an empty slot. Callers that must
+ * not allocate can walk the slots directly with {@link #slots()},
+ * {@link #symbolIdAt} and {@link #quantityAt}.
+ *
+ * Not thread-safe; the owning account's lock covers it.
+ */
+public final class HoldingsMap {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private Map<String, Integer> view;
+
+    /**
+     * Callback for visiting holdings without allocating entries.
+     */
+    public interface Visitor {
+        void visit(int symbolId, long quantity);
+    }
+
+    public HoldingsMap() {
+        init(INITIAL_CAPACITY);
+    }
+
+    private void init(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private int slot(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Quantity held of a symbol, or 0.
+     */
+    public long get(int symbolId) {
+        for (int i = slot(symbolId); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == symbolId) {
+                return values[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Set the quantity of a symbol; a quantity of zero or less removes it.
+     */
+    public void put(int symbolId, long quantity) {
+        if (symbolId <= 0) {
+            throw new IllegalArgumentException("Invalid symbol ID " + symbolId);
+        }
+        if (quantity <= 0) {
+            remove(symbolId);
+            return;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        int i = slot(symbolId);
+        while (keys[i] != 0 && keys[i] != symbolId) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == 0) {
+            size++;
+        }
+        keys[i] = symbolId;
+        values[i] = quantity;
+    }
+
+    /**
+     * Add to the quantity of a symbol, removing it if nothing is left.
+     *
+     * @return The new quantity
+     */
+    public long add(int symbolId, long delta) {
+        long quantity = get(symbolId) + delta;
+        put(symbolId, quantity);
+        return Math.max(quantity, 0);
+    }
+
+    /**
+     * Remove a symbol.
+     *
+     * @return The quantity that was held, or 0
+     */
+    public long remove(int symbolId) {
+        int i = slot(symbolId);
+        while (keys[i] != symbolId) {
+            if (keys[i] == 0) {
+                return 0;
+            }
+            i = (i + 1) & mask;
+        }
+        long removed = values[i];
+        size--;
+        // Shift later entries of the probe run back into the gap
+        int gap = i;
+        for (int j = (gap + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = 0;
+        return removed;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        init(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Number of slots to walk with {@link #symbolIdAt}/{@link #quantityAt}.
+     */
+    public int slots() {
+        return keys.length;
+    }
+
+    /**
+     * Symbol ID in a slot, or 0 if the slot is empty.
+     */
+    public int symbolIdAt(int slot) {
+        return keys[slot];
+    }
+
+    public long quantityAt(int slot) {
+        return values[slot];
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Live, read-only view keyed by symbol. Changes to the holdings show
+     * through; nothing is copied.
+     */
+    public Map<String, Integer> asMap() {
+        if (view == null) {
+            view = new SymbolView();
+        }
+        return view;
+    }
+
+    /**
+     * Independent copy keyed by symbol.
+     */
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> copy = new HashMap<>(size * 2);
+        forEach((symbolId, quantity) -> copy.put(SymbolTable.symbolOf(symbolId), (int) quantity));
+        return copy;
+    }
+
+    private final class SymbolView extends AbstractMap<String, Integer> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            int symbolId = SymbolTable.find((String) key);
+            long quantity = symbolId != 0 ? HoldingsMap.this.get(symbolId) : 0;
+            return quantity > 0 ? (int) quantity : null;
+        }
+
+        @Override
+        public Set<Entry<String, Integer>> entrySet() {
+            return new AbstractSet<Entry<String, Integer>>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Entry<String, Integer>> iterator() {
+                    return new Iterator<Entry<String, Integer>>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            while (from < keys.length && keys[from] == 0) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < keys.length;
+                        }
+
+                        @Override
+                        public Entry<String, Integer> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, Integer> entry = new SimpleImmutableEntry<>(
+                                    SymbolTable.symbolOf(keys[next]), (int) values[next]);
+                            next = advance(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
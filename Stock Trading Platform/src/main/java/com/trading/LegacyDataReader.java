@@ -0,0 +1,147 @@
+package com.trading;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader for data files written with Java serialization by earlier versions
+ * (users.dat and portfolios.dat).
+ *
+ * Class descriptors in the stream are mapped onto frozen copies of the old
+ * class layouts below, so old files stay readable however the live domain
+ * classes change. The copies are then converted into current objects.
+ */
+class LegacyDataReader {
+    private final Map<String, Transaction> converted = new HashMap<>();
+
+    /**
+     * Read a users.dat file.
+     */
+    Map<String, User> readUsers(String file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = open(file)) {
+            return convertUsers(ois.readObject());
+        }
+    }
+
+    /**
+     * Read a portfolios.dat file.
+     */
+    Map<String, Portfolio> readPortfolios(String file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = open(file)) {
+            return convertPortfolios(ois.readObject());
+        }
+    }
+
+    private static ObjectInputStream open(String file) throws IOException {
+        return new LegacyObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, User> convertUsers(Object stored) {
+        Map<String, User> users = new HashMap<>();
+        for (LegacyUser legacy : ((Map<String, LegacyUser>) stored).values()) {
+            User user = new User(legacy.userId, legacy.name, legacy.initialBalance);
+            user.setBalance(legacy.balance);
+            for (LegacyTransaction transaction : legacy.transactions) {
+                user.addTransaction(convert(transaction));
+            }
+            users.put(legacy.userId, user);
+        }
+        return users;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Portfolio> convertPortfolios(Object stored) {
+        Map<String, Portfolio> portfolios = new HashMap<>();
+        for (LegacyPortfolio legacy : ((Map<String, LegacyPortfolio>) stored).values()) {
+            Portfolio portfolio = new Portfolio(legacy.userId);
+            for (LegacyTransaction transaction : legacy.transactions) {
+                portfolio.addTransaction(convert(transaction));
+            }
+            for (LegacyPerformancePoint point : legacy.performanceHistory) {
+                portfolio.restorePerformance(new Portfolio.PerformancePoint(point.timestamp, point.value));
+            }
+            portfolios.put(legacy.userId, portfolio);
+        }
+        return portfolios;
+    }
+
+    private Transaction convert(LegacyTransaction legacy) {
+        // users.dat and portfolios.dat hold separate copies of each trade; match
+        // them by value so the converted user and portfolio share one instance
+        String key = legacy.userId + '|' + legacy.transactionId + '|' + legacy.timestamp;
+        return converted.computeIfAbsent(key, k -> new Transaction(legacy.transactionType, legacy.stockSymbol,
+                legacy.quantity, legacy.pricePerShare, legacy.userId, legacy.transactionId, legacy.timestamp));
+    }
+
+    /**
+     * Resolves the original class names to the frozen layouts.
+     */
+    private static class LegacyObjectInputStream extends ObjectInputStream {
+        private static final Map<String, Class<?>> LAYOUTS = new HashMap<>();
+
+        static {
+            LAYOUTS.put("com.trading.User", LegacyUser.class);
+            LAYOUTS.put("com.trading.Transaction", LegacyTransaction.class);
+            LAYOUTS.put("com.trading.Portfolio", LegacyPortfolio.class);
+            LAYOUTS.put("com.trading.Portfolio$PerformancePoint", LegacyPerformancePoint.class);
+        }
+
+        LegacyObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+            Class<?> layout = LAYOUTS.get(descriptor.getName());
+            return layout != null ? ObjectStreamClass.lookup(layout) : descriptor;
+        }
+    }
+
+    // Frozen layouts; field names and types must never change
+
+    private static class LegacyUser implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String userId;
+        private String name;
+        private double balance;
+        private double initialBalance;
+        private List<LegacyTransaction> transactions;
+    }
+
+    private static class LegacyTransaction implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String transactionId;
+        private TransactionType transactionType;
+        private String stockSymbol;
+        private int quantity;
+        private double pricePerShare;
+        private double totalValue;
+        private String userId;
+        private LocalDateTime timestamp;
+    }
+
+    private static class LegacyPortfolio implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String userId;
+        private Map<String, Integer> holdings;
+        private List<LegacyTransaction> transactions;
+        private List<LegacyPerformancePoint> performanceHistory;
+    }
+
+    private static class LegacyPerformancePoint implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private LocalDateTime timestamp;
+        private double value;
+    }
+}
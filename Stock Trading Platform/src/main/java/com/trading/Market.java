@@ -1,18 +1,46 @@
 package com.trading;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Clock;
 import java.util.*;
 
 /**
  * Market class managing stock market simulation and data.
+ *
+ * The listing is published as an immutable {@link MarketSnapshot}, replaced
+ * whole whenever a stock is added or prices are updated, so lookups on the
+ * order path never lock or copy. Price moves come from a pluggable
+ * {@link PriceModel}; set -Dtrading.priceSeed to replay the same moves.
+ * Price changes are pushed to subscribers through a {@link MarketDataBus}.
+ * Ticks and trades are timestamped with the market's clock, which a
+ * backtest replaces with a {@link SimulatedClock}.
  */
 public class Market {
-    private Map<String, Stock> stocks;
+    private final Clock clock;
+    private volatile MarketSnapshot snapshot;
+    private PriceModel priceModel = PriceModels.uniform(0.05);
+    private SplittableRandom random = newRandom();
+    private double[] stepPrices = new double[0];
+    private final MarketDataBus dataBus = new MarketDataBus();
+    private Path priceHistoryDir;
+    private final List<PriceHistoryStore> historyStores = new ArrayList<>();
 
     /**
-     * Initialize the market with default stocks.
+     * Initialize the market with default stocks on the shared
+     * {@link CachedClock}.
      */
     public Market() {
-        this.stocks = new HashMap<>();
+        this(CachedClock.systemDefault());
+    }
+
+    /**
+     * Initialize the market with default stocks and a clock for ticks and
+     * trades, such as a simulated one for backtesting.
+     */
+    public Market(Clock clock) {
+        this.clock = clock;
         initializeDefaultStocks();
     }
 
@@ -30,28 +58,71 @@ public class Market {
             new Object[]{"JNJ", "Johnson & Johnson", 165.40}
         );
 
+        List<Stock> stocks = new ArrayList<>();
         for (Object[] stockData : defaultStocks) {
             String symbol = (String) stockData[0];
             String name = (String) stockData[1];
             double price = (Double) stockData[2];
-            stocks.put(symbol, new Stock(symbol, name, price));
+            stocks.add(new Stock(symbol, name, price, clock));
         }
+        snapshot = MarketSnapshot.of(0, stocks);
     }
 
     /**
      * Add a new stock to the market.
      */
-    public Stock addStock(String symbol, String name, double initialPrice) {
-        Stock stock = new Stock(symbol, name, initialPrice);
-        stocks.put(symbol.toUpperCase(), stock);
+    public synchronized Stock addStock(String symbol, String name, double initialPrice) {
+        Stock stock = new Stock(symbol, name, initialPrice, clock);
+        List<Stock> stocks = new ArrayList<>(snapshot.getStocks().values());
+        stocks.add(stock);
+        snapshot = MarketSnapshot.of(snapshot.getVersion() + 1, stocks);
+        if (priceHistoryDir != null) {
+            attachHistoryStore(stock);
+        }
+        dataBus.publish(snapshot);
         return stock;
     }
 
+    /**
+     * Keep every stock's price history in memory-mapped files under the
+     * given directory, one pair of column files per symbol.
+     */
+    public synchronized void attachPriceHistory(Path dir) {
+        this.priceHistoryDir = dir;
+        for (Stock stock : snapshot.getStocks().values()) {
+            attachHistoryStore(stock);
+        }
+    }
+
+    private void attachHistoryStore(Stock stock) {
+        try {
+            PriceHistoryStore store = new PriceHistoryStore(priceHistoryDir, stock.getSymbol());
+            historyStores.add(store);
+            stock.attachHistoryStore(store);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open price history for " + stock.getSymbol(), e);
+        }
+    }
+
+    /**
+     * Flush and close the price history files.
+     */
+    public synchronized void closePriceHistory() {
+        for (PriceHistoryStore store : historyStores) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                System.err.println("Error closing price history: " + e.getMessage());
+            }
+        }
+        historyStores.clear();
+    }
+
     /**
      * Get a stock by symbol.
      */
     public Stock getStock(String symbol) {
-        Stock stock = stocks.get(symbol.toUpperCase());
+        Stock stock = snapshot.getStock(symbol);
         if (stock == null) {
             throw new IllegalArgumentException("Stock " + symbol + " not found in market");
         }
@@ -59,19 +130,114 @@ public class Market {
     }
 
     /**
-     * Get all stocks in the market.
+     * Check whether a symbol is listed.
+     */
+    public boolean hasStock(String symbol) {
+        return snapshot.contains(symbol);
+    }
+
+    /**
+     * Current listing and prices. The snapshot never changes; fetch a new
+     * one to see later updates.
+     */
+    public MarketSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Get all stocks in the market as a modifiable copy. Read-only callers
+     * should use {@link #getSnapshot()} instead.
      */
     public Map<String, Stock> getAllStocks() {
-        return new HashMap<>(stocks);
+        return new HashMap<>(snapshot.getStocks());
+    }
+
+    private static SplittableRandom newRandom() {
+        Long seed = Long.getLong("trading.priceSeed");
+        return seed != null ? new SplittableRandom(seed) : new SplittableRandom();
+    }
+
+    /**
+     * Replace the model used by {@link #updatePrices()}.
+     */
+    public synchronized void setPriceModel(PriceModel priceModel) {
+        this.priceModel = Objects.requireNonNull(priceModel);
+    }
+
+    public synchronized PriceModel getPriceModel() {
+        return priceModel;
     }
 
     /**
-     * Update all stock prices with random fluctuations.
+     * Restart the price moves from a seed, so the same model and seed give
+     * the same path.
      */
-    public void updatePrices() {
-        for (Stock stock : stocks.values()) {
-            stock.updatePrice(null);
+    public synchronized void setPriceSeed(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Move every stock one tick with the price model. All prices are
+     * stepped together in one array, then applied.
+     *
+     * @return Snapshot holding every price from this tick
+     */
+    public synchronized MarketSnapshot updatePrices() {
+        MarketSnapshot current = snapshot;
+        int n = current.size();
+        if (stepPrices.length != n) {
+            stepPrices = new double[n];
+        }
+        for (int i = 0; i < n; i++) {
+            stepPrices[i] = current.stockAt(i).getCurrentPrice();
         }
+        // Each tick draws from its own split, so a model that splits again
+        // for parallel work stays reproducible
+        priceModel.step(current, stepPrices, random.split());
+        long now = clock.millis();
+        double[] prices = new double[n];
+        for (int i = 0; i < n; i++) {
+            prices[i] = current.stockAt(i).applyPrice(stepPrices[i], now);
+        }
+        snapshot = current.repriced(current.getVersion() + 1, prices);
+        dataBus.publish(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Publish a new snapshot of the stocks' current prices, after they
+     * were set directly rather than through {@link #updatePrices()}.
+     */
+    public synchronized MarketSnapshot refreshSnapshot() {
+        snapshot = snapshot.repriced(snapshot.getVersion() + 1);
+        dataBus.publish(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Clock used for tick and trade timestamps.
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Receive price changes of one symbol. A slow listener gets only the
+     * newest price, never a backlog.
+     */
+    public MarketDataBus.Subscription subscribe(String symbol, MarketDataBus.PriceListener listener) {
+        return dataBus.subscribe(symbol, listener);
+    }
+
+    /**
+     * Receive price changes of every symbol, conflated per symbol.
+     */
+    public MarketDataBus.Subscription subscribeAll(MarketDataBus.PriceListener listener) {
+        return dataBus.subscribeAll(listener);
+    }
+
+    public MarketDataBus getDataBus() {
+        return dataBus;
     }
 
     /**
@@ -79,7 +245,7 @@ public class Market {
      */
     public List<Map<String, Object>> getMarketData() {
         List<Map<String, Object>> marketData = new ArrayList<>();
-        for (Stock stock : stocks.values()) {
+        for (Stock stock : snapshot.getStocks().values()) {
             Map<String, Object> data = new HashMap<>();
             data.put("symbol", stock.getSymbol());
             data.put("name", stock.getName());
@@ -87,9 +253,14 @@ public class Market {
             double change = stock.getPriceChange();
             data.put("change", change);
             data.put("change_percent", change);
+            // Range and volume of the current bar of the longest tier
+            BarSeries bars = stock.getTickHistory().getCoarsestTier();
+            boolean hasBar = bars != null && !bars.isEmpty();
+            data.put("high", hasBar ? bars.highAt(bars.size() - 1) : stock.getCurrentPrice());
+            data.put("low", hasBar ? bars.lowAt(bars.size() - 1) : stock.getCurrentPrice());
+            data.put("volume", hasBar ? bars.volumeAt(bars.size() - 1) : 0L);
             marketData.add(data);
         }
-        marketData.sort(Comparator.comparing(d -> (String) d.get("symbol")));
         return marketData;
     }
 
@@ -100,7 +271,8 @@ public class Market {
         System.out.println("\n" + "=".repeat(80));
         System.out.println(String.format("%80s", "MARKET DATA"));
         System.out.println("=".repeat(80));
-        System.out.printf("%-10s %-30s %-15s %-15s%n", "Symbol", "Company Name", "Price", "Change %");
+        System.out.printf("%-6s %-22s %-10s %-8s %-10s %-10s %8s%n",
+                "Symbol", "Company Name", "Price", "Change %", "High", "Low", "Volume");
         System.out.println("-".repeat(80));
 
         for (Map<String, Object> data : getMarketData()) {
@@ -109,7 +281,8 @@ public class Market {
             double price = (Double) data.get("price");
             double changePercent = (Double) data.get("change_percent");
             String changeStr = String.format("%+.2f%%", changePercent);
-            System.out.printf("%-10s %-30s $%-14.2f %-15s%n", symbol, name, price, changeStr);
+            System.out.printf("%-6s %-22s $%-9.2f %-8s $%-9.2f $%-9.2f %8d%n", symbol, name, price, changeStr,
+                    (Double) data.get("high"), (Double) data.get("low"), (Long) data.get("volume"));
         }
         System.out.println("=".repeat(80) + "\n");
     }
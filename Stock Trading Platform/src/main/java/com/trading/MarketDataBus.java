@@ -0,0 +1,187 @@
+package com.trading;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publish/subscribe fan-out of price updates with per-subscriber
+ * conflation.
+ *
+ * Every subscription keeps one slot per symbol holding the newest price
+ * not yet delivered. Publishing swaps the new price into each interested
+ * subscriber's slot and, if the slot was empty, queues the slot for
+ * delivery; nothing waits on a consumer. A subscriber's updates are
+ * delivered in order on its executor by one task at a time, so a slow
+ * consumer skips straight to the latest price of each symbol instead of
+ * building a backlog.
+ */
+public class MarketDataBus {
+    /**
+     * Callback for price updates.
+     */
+    public interface PriceListener {
+        /**
+         * @param symbol Stock symbol
+         * @param price New price
+         * @param version Market snapshot version the price comes from
+         */
+        void onPrice(String symbol, double price, long version);
+    }
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "market-data");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Subscription> allSymbols = new CopyOnWriteArrayList<>();
+    private final Map<String, List<Subscription>> bySymbol = new ConcurrentHashMap<>();
+
+    /**
+     * Price update shared by every subscriber it is published to.
+     */
+    private static final class Quote {
+        final String symbol;
+        final double price;
+        final long version;
+
+        Quote(String symbol, double price, long version) {
+            this.symbol = symbol;
+            this.price = price;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Handle for one listener; cancel it to stop deliveries.
+     */
+    public final class Subscription {
+        private final String symbol; // null for all symbols
+        private final PriceListener listener;
+        private final Executor executor;
+        private final Map<String, AtomicReference<Quote>> slots = new ConcurrentHashMap<>();
+        private final Queue<AtomicReference<Quote>> ready = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean cancelled;
+
+        Subscription(String symbol, PriceListener listener, Executor executor) {
+            this.symbol = symbol;
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        void offer(Quote quote) {
+            AtomicReference<Quote> slot = slots.get(quote.symbol);
+            if (slot == null) {
+                slot = slots.computeIfAbsent(quote.symbol, key -> new AtomicReference<>());
+            }
+            if (slot.getAndSet(quote) == null) {
+                ready.offer(slot);
+                if (scheduled.compareAndSet(false, true)) {
+                    executor.execute(this::drain);
+                }
+            }
+        }
+
+        private void drain() {
+            do {
+                AtomicReference<Quote> slot;
+                while ((slot = ready.poll()) != null) {
+                    Quote quote = slot.getAndSet(null);
+                    if (quote != null && !cancelled) {
+                        try {
+                            listener.onPrice(quote.symbol, quote.price, quote.version);
+                        } catch (RuntimeException e) {
+                            System.err.println("Error in price listener: " + e.getMessage());
+                        }
+                    }
+                }
+                scheduled.set(false);
+                // An update may have been queued after the last poll
+            } while (!ready.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        /**
+         * Stop deliveries; updates already being delivered may still arrive.
+         */
+        public void cancel() {
+            cancelled = true;
+            if (symbol == null) {
+                allSymbols.remove(this);
+            } else {
+                List<Subscription> list = bySymbol.get(symbol);
+                if (list != null) {
+                    list.remove(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Listen to one symbol, delivered on the bus's shared thread pool.
+     */
+    public Subscription subscribe(String symbol, PriceListener listener) {
+        return subscribe(symbol, listener, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Listen to one symbol, delivered on the given executor.
+     */
+    public Subscription subscribe(String symbol, PriceListener listener, Executor executor) {
+        String key = symbol.toUpperCase();
+        Subscription subscription = new Subscription(key, listener, executor);
+        bySymbol.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Listen to every symbol, delivered on the bus's shared thread pool.
+     */
+    public Subscription subscribeAll(PriceListener listener) {
+        return subscribeAll(listener, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Listen to every symbol, delivered on the given executor.
+     */
+    public Subscription subscribeAll(PriceListener listener, Executor executor) {
+        Subscription subscription = new Subscription(null, listener, executor);
+        allSymbols.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Publish every price in a snapshot.
+     */
+    public void publish(MarketSnapshot snapshot) {
+        boolean anyAll = !allSymbols.isEmpty();
+        if (!anyAll && bySymbol.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < snapshot.size(); i++) {
+            String symbol = snapshot.stockAt(i).getSymbol();
+            List<Subscription> listeners = bySymbol.get(symbol);
+            if (!anyAll && (listeners == null || listeners.isEmpty())) {
+                continue;
+            }
+            Quote quote = new Quote(symbol, snapshot.priceAt(i), snapshot.getVersion());
+            for (Subscription subscription : allSymbols) {
+                subscription.offer(quote);
+            }
+            if (listeners != null) {
+                for (Subscription subscription : listeners) {
+                    subscription.offer(quote);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.trading;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable view of the listed stocks at one point in time.
+ *
+ * The market publishes a new snapshot whenever a stock is listed or prices
+ * are updated, so readers get a consistent listing without locking or
+ * copying. Symbols are held in sorted order; membership and lookups are
+ * a single hash probe.
+ */
+public final class MarketSnapshot {
+    private final long version;
+    private final Stock[] stocks;
+    private final double[] prices;
+    private final Map<String, Integer> index;
+    private final int[] positionsById; // symbol ID -> position + 1, 0 if not listed
+    private final double[] pricesById; // symbol ID -> snapshot price, 0 if not listed
+    private final Map<String, Stock> view;
+
+    private MarketSnapshot(long version, Stock[] stocks, double[] prices, Map<String, Integer> index,
+                           int[] positionsById, Map<String, Stock> view) {
+        this.version = version;
+        this.stocks = stocks;
+        this.prices = prices;
+        this.index = index;
+        this.positionsById = positionsById;
+        this.view = view;
+        this.pricesById = new double[positionsById.length];
+        for (int i = 0; i < stocks.length; i++) {
+            pricesById[stocks[i].getSymbolId()] = prices[i];
+        }
+    }
+
+    /**
+     * Snapshot of the given stocks at their current prices.
+     */
+    static MarketSnapshot of(long version, Iterable<Stock> listed) {
+        Map<String, Stock> sorted = new TreeMap<>();
+        for (Stock stock : listed) {
+            sorted.put(stock.getSymbol(), stock);
+        }
+        Stock[] stocks = sorted.values().toArray(new Stock[0]);
+        Map<String, Integer> index = new HashMap<>(stocks.length * 2);
+        Map<String, Stock> view = new LinkedHashMap<>(stocks.length * 2);
+        int maxId = 0;
+        for (int i = 0; i < stocks.length; i++) {
+            index.put(stocks[i].getSymbol(), i);
+            view.put(stocks[i].getSymbol(), stocks[i]);
+            maxId = Math.max(maxId, stocks[i].getSymbolId());
+        }
+        int[] positionsById = new int[maxId + 1];
+        for (int i = 0; i < stocks.length; i++) {
+            positionsById[stocks[i].getSymbolId()] = i + 1;
+        }
+        return new MarketSnapshot(version, stocks, pricesOf(stocks), index, positionsById,
+                Collections.unmodifiableMap(view));
+    }
+
+    /**
+     * The same listing with prices re-read from the stocks.
+     */
+    MarketSnapshot repriced(long version) {
+        return repriced(version, pricesOf(stocks));
+    }
+
+    /**
+     * The same listing at the given prices, in listing order. The array is
+     * kept, not copied.
+     */
+    MarketSnapshot repriced(long version, double[] prices) {
+        return new MarketSnapshot(version, stocks, prices, index, positionsById, view);
+    }
+
+    /**
+     * Whether another snapshot lists the same stocks in the same order,
+     * however its prices differ.
+     */
+    boolean hasSameListing(MarketSnapshot other) {
+        return other != null && other.stocks == stocks;
+    }
+
+    private static double[] pricesOf(Stock[] stocks) {
+        double[] prices = new double[stocks.length];
+        for (int i = 0; i < stocks.length; i++) {
+            prices[i] = stocks[i].getCurrentPrice();
+        }
+        return prices;
+    }
+
+    /**
+     * Increases every time the market publishes a new snapshot.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return stocks.length;
+    }
+
+    /**
+     * Position of a symbol (case-insensitive), or -1 if it is not listed.
+     */
+    public int indexOf(String symbol) {
+        Integer position = index.get(symbol);
+        if (position == null) {
+            // toUpperCase returns the same string when it is already upper case
+            String upper = symbol.toUpperCase();
+            if (upper != symbol) {
+                position = index.get(upper);
+            }
+        }
+        return position != null ? position : -1;
+    }
+
+    public boolean contains(String symbol) {
+        return indexOf(symbol) >= 0;
+    }
+
+    /**
+     * Stock listed under a symbol, or null if there is none.
+     */
+    public Stock getStock(String symbol) {
+        int position = indexOf(symbol);
+        return position >= 0 ? stocks[position] : null;
+    }
+
+    /**
+     * Price of a symbol when this snapshot was taken.
+     *
+     * @throws IllegalArgumentException if the symbol is not listed
+     */
+    public double getPrice(String symbol) {
+        int position = indexOf(symbol);
+        if (position < 0) {
+            throw new IllegalArgumentException("Stock " + symbol + " not found in market");
+        }
+        return prices[position];
+    }
+
+    /**
+     * Position of a symbol by its {@link SymbolTable} ID, or -1 if it is
+     * not listed.
+     */
+    public int indexOfId(int symbolId) {
+        return symbolId > 0 && symbolId < positionsById.length ? positionsById[symbolId] - 1 : -1;
+    }
+
+    /**
+     * Price of a stock by its {@link SymbolTable} ID when this snapshot was
+     * taken, or 0 if it is not listed.
+     */
+    public double priceById(int symbolId) {
+        return symbolId > 0 && symbolId < pricesById.length ? pricesById[symbolId] : 0.0;
+    }
+
+    /**
+     * Snapshot prices indexed by symbol ID, shared rather than copied;
+     * callers must not modify it.
+     */
+    double[] pricesById() {
+        return pricesById;
+    }
+
+    /**
+     * Current price of a stock by its {@link SymbolTable} ID, or NaN if it
+     * is not listed.
+     */
+    public double currentPriceOf(int symbolId) {
+        int position = indexOfId(symbolId);
+        return position >= 0 ? stocks[position].getCurrentPrice() : Double.NaN;
+    }
+
+    /**
+     * Stock at a position; positions follow symbol order.
+     */
+    public Stock stockAt(int position) {
+        return stocks[position];
+    }
+
+    public double priceAt(int position) {
+        return prices[position];
+    }
+
+    /**
+     * Read-only map of symbol to stock, in symbol order.
+     */
+    public Map<String, Stock> getStocks() {
+        return view;
+    }
+
+    @Override
+    public String toString() {
+        return "MarketSnapshot{version=" + version + ", stocks=" + view.keySet() + "}";
+    }
+}
@@ -0,0 +1,133 @@
+package com.trading;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background service that moves market prices at a fixed rate.
+ *
+ * Each tick calls {@link Market#updatePrices()} on a single scheduler
+ * thread and hands the resulting {@link MarketSnapshot} to every
+ * subscriber. A snapshot holds all prices from one tick and never changes,
+ * so readers anywhere can use it, or {@link Market#getSnapshot()}, without
+ * locking and without holding up the next tick. Subscribers run on the
+ * ticker thread, or on the caller's for {@link #tickNow()}, and should
+ * return quickly.
+ */
+public class MarketTicker {
+    /**
+     * Callback for each tick.
+     */
+    public interface Listener {
+        void onTick(MarketSnapshot snapshot);
+    }
+
+    private final Market market;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Object tickLock = new Object(); // one tick at a time
+    private ScheduledExecutorService scheduler;
+    private volatile long ticks;
+
+    public MarketTicker(Market market) {
+        this.market = market;
+    }
+
+    /**
+     * Start ticking. Does nothing if already running.
+     *
+     * @param ticksPerSecond Tick rate
+     */
+    public synchronized void start(double ticksPerSecond) {
+        if (ticksPerSecond <= 0) {
+            throw new IllegalArgumentException("Tick rate must be positive");
+        }
+        if (scheduler != null) {
+            return;
+        }
+        long periodNanos = Math.max(1L, Math.round(1e9 / ticksPerSecond));
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "market-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::tick, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop ticking and wait for a tick in progress to finish.
+     */
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Number of ticks published since the ticker was created.
+     */
+    public long getTickCount() {
+        return ticks;
+    }
+
+    /**
+     * Run one tick on the calling thread, e.g. for a manual price update,
+     * and notify subscribers as a scheduled tick would.
+     *
+     * @return The new snapshot
+     */
+    public MarketSnapshot tickNow() {
+        synchronized (tickLock) {
+            MarketSnapshot snapshot = market.updatePrices();
+            publish(snapshot);
+            return snapshot;
+        }
+    }
+
+    private void tick() {
+        synchronized (tickLock) {
+            MarketSnapshot snapshot;
+            try {
+                snapshot = market.updatePrices();
+            } catch (RuntimeException e) {
+                // Skip this tick but keep the schedule alive
+                System.err.println("Error updating market prices: " + e.getMessage());
+                return;
+            }
+            publish(snapshot);
+        }
+    }
+
+    private void publish(MarketSnapshot snapshot) {
+        ticks++;
+        for (Listener listener : listeners) {
+            try {
+                listener.onTick(snapshot);
+            } catch (RuntimeException e) {
+                // A failing subscriber must not cancel the schedule
+                System.err.println("Error in market tick listener: " + e.getMessage());
+            }
+        }
+    }
+}
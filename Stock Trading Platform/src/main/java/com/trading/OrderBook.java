@@ -0,0 +1,493 @@
+package com.trading;
+
+import java.util.Arrays;
+
+/**
+ * Limit order book for a single symbol with price-time priority matching.
+ *
+ * Prices are whole cents. Each side keeps its price levels in a sorted
+ * primitive array with the best level at the end, so the common operations
+ * (matching at the top, adding near the top, removing an emptied best level)
+ * touch only the tail. Orders at a level form an intrusive doubly linked
+ * FIFO; order nodes and levels are recycled through free lists, and orders
+ * are found for cancel/replace through a primitive open-addressing map, so
+ * steady-state operation does not allocate.
+ *
+ * Not thread-safe; callers serialize access per book.
+ */
+public class OrderBook {
+    private final String symbol;
+    private final Side bids = new Side(true);
+    private final Side asks = new Side(false);
+    private final OrderIndex index = new OrderIndex();
+    private OrderNode freeNodes;
+    private Level freeLevels;
+    private long nextOrderId = 1;
+
+    /**
+     * Receives each execution as it happens. Called from inside
+     * {@link #submit}/{@link #replace}, before the book changes; it must not
+     * call back into the book. If it throws, that fill and the rest of the
+     * incoming order are dropped, the book stays as it was before the fill
+     * and the exception propagates to the caller.
+     */
+    public interface FillListener {
+        void onFill(long makerOrderId, String makerUserId, long takerOrderId, String takerUserId,
+                    boolean takerBuys, long priceCents, int quantity);
+    }
+
+    public OrderBook(String symbol) {
+        this.symbol = symbol.toUpperCase();
+    }
+
+    /**
+     * Convert a dollar price to whole cents.
+     */
+    public static long toCents(double price) {
+        return Math.round(price * 100.0);
+    }
+
+    public static double toPrice(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * Match an incoming limit order against the opposite side and rest any
+     * remainder on the book.
+     *
+     * An order never trades with a resting order of the same user. Matching
+     * stops when it reaches one, and since the remainder would cross the
+     * book it is cancelled instead of resting.
+     *
+     * @return Order ID; use {@link #getRemaining} to see what is resting
+     */
+    public long submit(String userId, boolean buy, long limitCents, int quantity, FillListener listener) {
+        if (quantity <= 0 || limitCents <= 0) {
+            throw new IllegalArgumentException("Quantity and limit price must be positive");
+        }
+        long orderId = nextOrderId++;
+        int remaining = match(orderId, userId, buy, limitCents, quantity, listener);
+        if (remaining > 0 && !crosses(buy, limitCents)) {
+            rest(orderId, userId, buy, limitCents, remaining);
+        }
+        return orderId;
+    }
+
+    private boolean crosses(boolean buy, long limitCents) {
+        Level level = (buy ? asks : bids).best();
+        return level != null && (buy ? level.price <= limitCents : level.price >= limitCents);
+    }
+
+    private int match(long takerId, String takerUserId, boolean buy, long limitCents, int quantity,
+                      FillListener listener) {
+        Side opposite = buy ? asks : bids;
+        while (quantity > 0) {
+            Level level = opposite.best();
+            if (level == null || (buy ? level.price > limitCents : level.price < limitCents)) {
+                break;
+            }
+            OrderNode maker = level.head;
+            if (maker.userId.equals(takerUserId)) {
+                break; // Self-trade
+            }
+            int fill = Math.min(quantity, maker.remaining);
+            long makerId = maker.orderId;
+            String makerUserId = maker.userId;
+            long price = level.price;
+
+            listener.onFill(makerId, makerUserId, takerId, takerUserId, buy, price, fill);
+            maker.remaining -= fill;
+            level.quantity -= fill;
+            quantity -= fill;
+            if (maker.remaining == 0) {
+                unlink(maker);
+                index.remove(makerId);
+                recycle(maker);
+                if (level.head == null) {
+                    opposite.removeBest();
+                    recycle(level);
+                }
+            }
+        }
+        return quantity;
+    }
+
+    private void rest(long orderId, String userId, boolean buy, long priceCents, int quantity) {
+        Side side = buy ? bids : asks;
+        Level level = side.find(priceCents);
+        if (level == null) {
+            level = newLevel(priceCents);
+            side.insert(level);
+        }
+        OrderNode node = newNode();
+        node.orderId = orderId;
+        node.userId = userId;
+        node.buy = buy;
+        node.remaining = quantity;
+        node.level = level;
+        node.prev = level.tail;
+        node.next = null;
+        if (level.tail != null) {
+            level.tail.next = node;
+        } else {
+            level.head = node;
+        }
+        level.tail = node;
+        level.quantity += quantity;
+        level.orders++;
+        index.put(orderId, node);
+    }
+
+    /**
+     * Cancel a resting order.
+     *
+     * @return Quantity that was still open, or 0 if the order is not resting
+     */
+    public int cancel(long orderId) {
+        OrderNode node = index.remove(orderId);
+        if (node == null) {
+            return 0;
+        }
+        int remaining = node.remaining;
+        Level level = node.level;
+        level.quantity -= remaining;
+        unlink(node);
+        if (level.head == null) {
+            (node.buy ? bids : asks).remove(level);
+            recycle(level);
+        }
+        recycle(node);
+        return remaining;
+    }
+
+    /**
+     * Change the price and/or quantity of a resting order. Reducing the
+     * quantity at the same price keeps its place in the queue; any other
+     * change cancels it and submits a new order, which may match at once.
+     *
+     * @return ID of the order now carrying the quantity (the same ID when
+     *         amended in place), or 0 if the order is not resting
+     */
+    public long replace(long orderId, long newLimitCents, int newQuantity, FillListener listener) {
+        OrderNode node = index.get(orderId);
+        if (node == null) {
+            return 0;
+        }
+        if (newQuantity <= 0 || newLimitCents <= 0) {
+            throw new IllegalArgumentException("Quantity and limit price must be positive");
+        }
+        if (newLimitCents == node.level.price && newQuantity <= node.remaining) {
+            node.level.quantity -= node.remaining - newQuantity;
+            node.remaining = newQuantity;
+            return orderId;
+        }
+        String userId = node.userId;
+        boolean buy = node.buy;
+        cancel(orderId);
+        return submit(userId, buy, newLimitCents, newQuantity, listener);
+    }
+
+    /**
+     * Open quantity of a resting order, or 0 if it is not resting.
+     */
+    public int getRemaining(long orderId) {
+        OrderNode node = index.get(orderId);
+        return node != null ? node.remaining : 0;
+    }
+
+    /**
+     * Limit price of a resting order in cents, or 0 if it is not resting.
+     */
+    public long getLimitCents(long orderId) {
+        OrderNode node = index.get(orderId);
+        return node != null ? node.level.price : 0;
+    }
+
+    /**
+     * Owner of a resting order, or null if it is not resting.
+     */
+    public String getUserId(long orderId) {
+        OrderNode node = index.get(orderId);
+        return node != null ? node.userId : null;
+    }
+
+    public boolean isBuy(long orderId) {
+        OrderNode node = index.get(orderId);
+        return node != null && node.buy;
+    }
+
+    /**
+     * Best bid in cents, or 0 if there are no bids.
+     */
+    public long getBestBid() {
+        Level level = bids.best();
+        return level != null ? level.price : 0;
+    }
+
+    /**
+     * Best ask in cents, or 0 if there are no asks.
+     */
+    public long getBestAsk() {
+        Level level = asks.best();
+        return level != null ? level.price : 0;
+    }
+
+    /**
+     * Total open quantity resting at a price on one side.
+     */
+    public long getDepth(boolean buy, long priceCents) {
+        Level level = (buy ? bids : asks).find(priceCents);
+        return level != null ? level.quantity : 0;
+    }
+
+    /**
+     * Number of price levels on one side.
+     */
+    public int getLevelCount(boolean buy) {
+        return (buy ? bids : asks).size;
+    }
+
+    public int getOrderCount() {
+        return index.size;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    private void unlink(OrderNode node) {
+        Level level = node.level;
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            level.head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            level.tail = node.prev;
+        }
+        level.orders--;
+    }
+
+    private OrderNode newNode() {
+        OrderNode node = freeNodes;
+        if (node == null) {
+            return new OrderNode();
+        }
+        freeNodes = node.next;
+        return node;
+    }
+
+    private void recycle(OrderNode node) {
+        node.userId = null;
+        node.level = null;
+        node.prev = null;
+        node.next = freeNodes;
+        freeNodes = node;
+    }
+
+    private Level newLevel(long price) {
+        Level level = freeLevels;
+        if (level == null) {
+            level = new Level();
+        } else {
+            freeLevels = level.nextFree;
+            level.nextFree = null;
+        }
+        level.price = price;
+        level.quantity = 0;
+        level.orders = 0;
+        return level;
+    }
+
+    private void recycle(Level level) {
+        level.head = null;
+        level.tail = null;
+        level.nextFree = freeLevels;
+        freeLevels = level;
+    }
+
+    /**
+     * A resting order; doubles as a link in its level's queue.
+     */
+    private static final class OrderNode {
+        long orderId;
+        String userId;
+        boolean buy;
+        int remaining;
+        Level level;
+        OrderNode prev;
+        OrderNode next;
+    }
+
+    /**
+     * All orders resting at one price, oldest first.
+     */
+    private static final class Level {
+        long price;
+        long quantity;
+        int orders;
+        OrderNode head;
+        OrderNode tail;
+        Level nextFree;
+    }
+
+    /**
+     * Price levels of one side, sorted so the best level is last. Bids are
+     * keyed by price and asks by negated price, so in both cases the best
+     * level has the largest key.
+     */
+    private static final class Side {
+        private final boolean bids;
+        private long[] keys = new long[64];
+        private Level[] levels = new Level[64];
+        private int size;
+
+        Side(boolean bids) {
+            this.bids = bids;
+        }
+
+        private long key(long price) {
+            return bids ? price : -price;
+        }
+
+        Level best() {
+            return size > 0 ? levels[size - 1] : null;
+        }
+
+        /**
+         * Position of the key, or -(insertion point) - 1 if absent.
+         */
+        private int search(long key) {
+            // Most activity is at the top of the book, so check the best level first
+            if (size > 0 && keys[size - 1] == key) {
+                return size - 1;
+            }
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long midKey = keys[mid];
+                if (midKey < key) {
+                    low = mid + 1;
+                } else if (midKey > key) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        Level find(long price) {
+            int position = search(key(price));
+            return position >= 0 ? levels[position] : null;
+        }
+
+        void insert(Level level) {
+            long key = key(level.price);
+            int position = -(search(key) + 1);
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                levels = Arrays.copyOf(levels, size * 2);
+            }
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(levels, position, levels, position + 1, size - position);
+            keys[position] = key;
+            levels[position] = level;
+            size++;
+        }
+
+        void removeBest() {
+            levels[--size] = null;
+        }
+
+        void remove(Level level) {
+            int position = search(key(level.price));
+            System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+            System.arraycopy(levels, position + 1, levels, position, size - position - 1);
+            levels[--size] = null;
+        }
+    }
+
+    /**
+     * Open-addressing map from order ID to resting order, with linear
+     * probing and backward-shift deletion. Order IDs start at 1, so 0 marks
+     * an empty slot.
+     */
+    private static final class OrderIndex {
+        private long[] keys = new long[1024];
+        private OrderNode[] values = new OrderNode[1024];
+        private int mask = 1023;
+        private int size;
+
+        private int slot(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        OrderNode get(long key) {
+            for (int i = slot(key); keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        void put(long key, OrderNode value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            int i = slot(key);
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        OrderNode remove(long key) {
+            int i = slot(key);
+            while (keys[i] != key) {
+                if (keys[i] == 0) {
+                    return null;
+                }
+                i = (i + 1) & mask;
+            }
+            OrderNode removed = values[i];
+            size--;
+            // Shift later entries of the probe run back into the gap
+            int gap = i;
+            for (int j = (gap + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                int home = slot(keys[j]);
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            keys[gap] = 0;
+            values[gap] = null;
+            return removed;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            OrderNode[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new OrderNode[oldKeys.length * 2];
+            mask = keys.length - 1;
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+}
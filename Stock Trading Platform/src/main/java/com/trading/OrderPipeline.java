@@ -0,0 +1,575 @@
+package com.trading;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Single-writer order pipeline in the style of the LMAX Disruptor.
+ *
+ * Client threads claim slots in a pre-allocated ring and publish orders
+ * into them. One business-logic thread takes the orders in sequence order
+ * and applies them to account state without any locking. Each trade and
+ * registration is appended to the journal before it is applied, so account
+ * state never holds a change the journal lacks. Downstream consumers then
+ * work through the same slots in batches:
+ * <ul>
+ *   <li>the journal consumer commits the journal once per batch and
+ *       completes the callers' futures, so a result is only reported once
+ *       it is durable;</li>
+ *   <li>the metrics consumer counts outcomes and measures latency;</li>
+ *   <li>an optional display consumer hands each durable result to a
+ *       listener.</li>
+ * </ul>
+ *
+ * While a pipeline is running the business-logic thread owns every account:
+ * trades, registrations and snapshots must go through the pipeline rather
+ * than the {@link TradingSystem} methods that change state directly.
+ */
+public class OrderPipeline implements AutoCloseable {
+    private static final int BUY = 0;
+    private static final int SELL = 1;
+    private static final int REGISTER = 2;
+    private static final int SNAPSHOT = 3;
+    /** Set in the claim counter once the pipeline is closed. */
+    private static final long CLOSED = 1L << 62;
+
+    private final TradingSystem tradingSystem;
+    private final Market market;
+    private final TradeJournal journal;
+    private final Consumer<TradingSystem.TransactionResult> displayListener;
+
+    private final Slot[] ring;
+    private final int mask;
+    private final int shift;
+    private final AtomicIntegerArray published;
+    private final AtomicLong claimed = new AtomicLong();
+
+    private final Stage logic;
+    private final Stage journaler;
+    private final Stage metrics;
+    private final Stage display;
+    private final Stage[] terminalStages;
+    private final List<Thread> threads = new ArrayList<>();
+
+    private final AtomicLong filledCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * One pre-allocated ring entry; fields are reused for every order that
+     * passes through it.
+     */
+    private static final class Slot {
+        int kind;
+        String userId;
+        String symbol;
+        int quantity;
+        String name;
+        double initialBalance;
+        long publishedNanos;
+        CompletableFuture<TradingSystem.TransactionResult> tradeFuture;
+        CompletableFuture<User> userFuture;
+        CompletableFuture<Snapshot> snapshotFuture;
+
+        // Written by the business-logic thread
+        OrderStatus status;
+        double price;
+        double available;
+        Transaction transaction;
+        User user;
+        Snapshot snapshot;
+        Exception failure;
+
+        void clear() {
+            userId = null;
+            symbol = null;
+            name = null;
+            tradeFuture = null;
+            userFuture = null;
+            snapshotFuture = null;
+            transaction = null;
+            user = null;
+            snapshot = null;
+            failure = null;
+        }
+    }
+
+    /**
+     * A consumer thread's progress: the highest sequence it has finished.
+     */
+    private static final class Stage {
+        final AtomicLong sequence = new AtomicLong(-1);
+    }
+
+    /**
+     * Create and start a pipeline.
+     *
+     * @param ringSize Number of slots; rounded up to a power of two
+     * @param journal Journal to make results durable in, or null for none
+     * @param displayListener Receives every durable result, or null for none
+     */
+    public OrderPipeline(TradingSystem tradingSystem, Market market, TradeJournal journal, int ringSize,
+                         Consumer<TradingSystem.TransactionResult> displayListener) {
+        this.tradingSystem = tradingSystem;
+        this.market = market;
+        this.journal = journal;
+        this.displayListener = displayListener;
+
+        int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.ring = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.shift = Integer.numberOfTrailingZeros(size);
+        this.published = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+
+        this.logic = new Stage();
+        this.journaler = new Stage();
+        this.metrics = new Stage();
+        this.display = displayListener != null ? new Stage() : null;
+        this.terminalStages = display != null
+                ? new Stage[]{journaler, metrics, display} : new Stage[]{journaler, metrics};
+
+        start("order-logic", this::runLogic);
+        start("order-journal", this::runJournal);
+        start("order-metrics", this::runMetrics);
+        if (display != null) {
+            start("order-display", this::runDisplay);
+        }
+    }
+
+    public OrderPipeline(TradingSystem tradingSystem, Market market, TradeJournal journal) {
+        this(tradingSystem, market, journal, 1 << 16, null);
+    }
+
+    private void start(String name, Runnable body) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    // Producer side
+
+    public CompletableFuture<TradingSystem.TransactionResult> buy(String userId, String symbol, int quantity) {
+        return trade(BUY, userId, symbol, quantity);
+    }
+
+    public CompletableFuture<TradingSystem.TransactionResult> sell(String userId, String symbol, int quantity) {
+        return trade(SELL, userId, symbol, quantity);
+    }
+
+    private CompletableFuture<TradingSystem.TransactionResult> trade(int kind, String userId, String symbol,
+                                                                      int quantity) {
+        CompletableFuture<TradingSystem.TransactionResult> future = new CompletableFuture<>();
+        long sequence = claim();
+        Slot slot = ring[(int) sequence & mask];
+        slot.clear();
+        slot.kind = kind;
+        slot.userId = userId;
+        slot.symbol = symbol;
+        slot.quantity = quantity;
+        slot.tradeFuture = future;
+        publish(sequence, slot);
+        return future;
+    }
+
+    /**
+     * Register a user; completes with null if the ID is already taken.
+     */
+    public CompletableFuture<User> register(String userId, String name, double initialBalance) {
+        CompletableFuture<User> future = new CompletableFuture<>();
+        long sequence = claim();
+        Slot slot = ring[(int) sequence & mask];
+        slot.clear();
+        slot.kind = REGISTER;
+        slot.userId = userId;
+        slot.name = name;
+        slot.initialBalance = initialBalance;
+        slot.userFuture = future;
+        publish(sequence, slot);
+        return future;
+    }
+
+    /**
+     * Capture a snapshot consistent with the journal. Balances are copied by
+     * the business-logic thread at this point in the order stream, and the
+     * journal sequence is taken once everything before it is journaled.
+     */
+    public CompletableFuture<Snapshot> captureSnapshot() {
+        CompletableFuture<Snapshot> future = new CompletableFuture<>();
+        long sequence = claim();
+        Slot slot = ring[(int) sequence & mask];
+        slot.clear();
+        slot.kind = SNAPSHOT;
+        slot.snapshotFuture = future;
+        publish(sequence, slot);
+        return future;
+    }
+
+    /**
+     * Claim the next sequence, waiting while the ring is full.
+     */
+    private long claim() {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if ((sequence & CLOSED) != 0) {
+                throw new IllegalStateException("Order pipeline is closed");
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        long wrapPoint = sequence - ring.length;
+        while (wrapPoint > minimumSequence(terminalStages)) {
+            LockSupport.parkNanos(1_000);
+        }
+        return sequence;
+    }
+
+    private void publish(long sequence, Slot slot) {
+        slot.publishedNanos = System.nanoTime();
+        // Each lap of the ring gets its own flag value, so a slot is only
+        // seen as available for the sequence that actually wrote it
+        published.lazySet((int) sequence & mask, (int) (sequence >>> shift));
+    }
+
+    /**
+     * Highest sequence published without gaps, starting from the given one.
+     */
+    private long highestPublished(long from, long upTo) {
+        for (long sequence = from; sequence <= upTo; sequence++) {
+            if (published.get((int) sequence & mask) != (int) (sequence >>> shift)) {
+                return sequence - 1;
+            }
+        }
+        return upTo;
+    }
+
+    /**
+     * Highest sequence handed out to a producer so far.
+     */
+    private long lastClaimed() {
+        return (claimed.get() & ~CLOSED) - 1;
+    }
+
+    /**
+     * Whether a stage that has reached the given sequence is done for good.
+     */
+    private boolean drained(long next) {
+        return (claimed.get() & CLOSED) != 0 && next > lastClaimed();
+    }
+
+    private static long minimumSequence(Stage[] stages) {
+        long minimum = Long.MAX_VALUE;
+        for (Stage stage : stages) {
+            minimum = Math.min(minimum, stage.sequence.get());
+        }
+        return minimum;
+    }
+
+    // Consumers
+
+    /**
+     * Wait until the gating sequence passes the given one.
+     *
+     * @return Highest sequence available, or -1 once the pipeline is closed
+     *         and drained
+     */
+    private long waitFor(long next, AtomicLong gate) {
+        int idle = 0;
+        while (true) {
+            long available = gate.get();
+            if (available >= next) {
+                return available;
+            }
+            if (drained(next)) {
+                return -1;
+            }
+            idle = idle(idle);
+        }
+    }
+
+    /**
+     * Spin briefly, then yield, then park, so an idle pipeline does not
+     * keep cores busy.
+     */
+    private static int idle(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return idle + 1;
+    }
+
+    private void runLogic() {
+        long next = 0;
+        int idle = 0;
+        while (true) {
+            long available = highestPublished(next, lastClaimed());
+            if (available < next) {
+                if (drained(next)) {
+                    return;
+                }
+                idle = idle(idle);
+                continue;
+            }
+            idle = 0;
+            for (long sequence = next; sequence <= available; sequence++) {
+                process(ring[(int) sequence & mask]);
+            }
+            logic.sequence.lazySet(available);
+            next = available + 1;
+        }
+    }
+
+    /**
+     * Journal one order and apply it to account state. Runs only on the
+     * business-logic thread, which owns every account while the pipeline is
+     * running.
+     */
+    private void process(Slot slot) {
+        try {
+            if (slot.kind == REGISTER) {
+                if (!tradingSystem.getUsers().containsKey(slot.userId)) {
+                    if (journal != null) {
+                        journal.appendRegistration(slot.userId, slot.name, slot.initialBalance);
+                    }
+                    slot.user = tradingSystem.applyRegistration(slot.userId, slot.name, slot.initialBalance);
+                }
+                return;
+            }
+            if (slot.kind == SNAPSHOT) {
+                // Everything applied so far is already in the journal
+                long sequence = journal != null ? journal.getLastSequence() : 0;
+                slot.snapshot = Snapshot.capture(sequence, tradingSystem.getUsers(), tradingSystem.getPortfolios());
+                return;
+            }
+            TransactionType type = slot.kind == BUY ? TransactionType.BUY : TransactionType.SELL;
+            User user = tradingSystem.getUsers().get(slot.userId);
+            Portfolio portfolio = tradingSystem.getPortfolios().get(slot.userId);
+            if (user == null || portfolio == null) {
+                slot.status = OrderStatus.UNKNOWN_USER;
+                return;
+            }
+            Stock stock = market.getSnapshot().getStock(slot.symbol);
+            if (stock == null) {
+                slot.status = OrderStatus.UNKNOWN_STOCK;
+                return;
+            }
+            double price = stock.getCurrentPrice();
+            slot.price = price;
+            slot.status = tradingSystem.checkMarketOrder(type, user, portfolio, slot.symbol, slot.quantity, price);
+            if (slot.status != OrderStatus.FILLED) {
+                slot.available = TradingSystem.available(type, user, portfolio, slot.symbol);
+                return;
+            }
+            Transaction transaction = new Transaction(type, slot.symbol, slot.quantity, price, slot.userId,
+                    tradingSystem.getTransactionIds(), tradingSystem.nowNanos());
+            if (journal != null) {
+                journal.appendTrade(transaction);
+            }
+            tradingSystem.applyFill(user, portfolio, stock, transaction);
+            slot.transaction = transaction;
+        } catch (IOException e) {
+            // Nothing was applied; the caller's future fails with this
+            System.err.println("Error journaling order: " + e.getMessage());
+            slot.status = OrderStatus.ERROR;
+            slot.failure = e;
+        } catch (RuntimeException e) {
+            // Raised before the journal append; once a trade is journaled applyFill always applies it
+            System.err.println("Error processing order: " + e.getMessage());
+            slot.status = OrderStatus.ERROR;
+            slot.failure = e;
+        }
+    }
+
+    private void runJournal() {
+        long next = 0;
+        while (true) {
+            long available = waitFor(next, logic.sequence);
+            if (available < 0) {
+                return;
+            }
+            IOException failure = null;
+            if (journal != null) {
+                try {
+                    journal.commit();
+                } catch (IOException e) {
+                    failure = e;
+                    System.err.println("Error committing orders: " + e.getMessage());
+                }
+            }
+            for (long sequence = next; sequence <= available; sequence++) {
+                Slot slot = ring[(int) sequence & mask];
+                complete(slot, failure != null ? failure : slot.failure);
+            }
+            journaler.sequence.lazySet(available);
+            next = available + 1;
+        }
+    }
+
+    private void complete(Slot slot, Exception failure) {
+        if (failure != null) {
+            if (slot.tradeFuture != null) {
+                slot.tradeFuture.completeExceptionally(failure);
+            } else if (slot.userFuture != null) {
+                slot.userFuture.completeExceptionally(failure);
+            } else if (slot.snapshotFuture != null) {
+                slot.snapshotFuture.completeExceptionally(failure);
+            }
+        } else if (slot.kind == REGISTER) {
+            slot.userFuture.complete(slot.user);
+        } else if (slot.kind == SNAPSHOT) {
+            slot.snapshotFuture.complete(slot.snapshot);
+        } else {
+            slot.tradeFuture.complete(result(slot));
+        }
+    }
+
+    private TradingSystem.TransactionResult result(Slot slot) {
+        return new PipelineResult(slot.status, slot.kind == BUY ? TransactionType.BUY : TransactionType.SELL,
+                slot.userId, slot.symbol, slot.quantity, slot.price, slot.available, slot.transaction);
+    }
+
+    /**
+     * Result whose message is only formatted if someone reads it, keeping
+     * string formatting off the journal consumer.
+     */
+    private static final class PipelineResult extends TradingSystem.TransactionResult {
+        private final OrderStatus status;
+        private final TransactionType type;
+        private final String userId;
+        private final String symbol;
+        private final int quantity;
+        private final double price;
+        private final double available;
+        private String message;
+
+        PipelineResult(OrderStatus status, TransactionType type, String userId, String symbol, int quantity,
+                       double price, double available, Transaction transaction) {
+            super(status.isSuccess(), null, transaction);
+            this.status = status;
+            this.type = type;
+            this.userId = userId;
+            this.symbol = symbol;
+            this.quantity = quantity;
+            this.price = price;
+            this.available = available;
+        }
+
+        @Override
+        public String getMessage() {
+            if (message == null) {
+                message = TradingSystem.describe(status, type, userId, symbol, quantity, price, available);
+            }
+            return message;
+        }
+    }
+
+    private void runMetrics() {
+        long next = 0;
+        while (true) {
+            long available = waitFor(next, logic.sequence);
+            if (available < 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long filled = 0;
+            long rejected = 0;
+            long latency = 0;
+            long max = 0;
+            for (long sequence = next; sequence <= available; sequence++) {
+                Slot slot = ring[(int) sequence & mask];
+                if (slot.kind != BUY && slot.kind != SELL) {
+                    continue;
+                }
+                if (slot.status == OrderStatus.FILLED) {
+                    filled++;
+                } else {
+                    rejected++;
+                }
+                long elapsed = now - slot.publishedNanos;
+                latency += elapsed;
+                max = Math.max(max, elapsed);
+            }
+            filledCount.addAndGet(filled);
+            rejectedCount.addAndGet(rejected);
+            totalLatencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(max, Math::max);
+            metrics.sequence.lazySet(available);
+            next = available + 1;
+        }
+    }
+
+    private void runDisplay() {
+        long next = 0;
+        while (true) {
+            long available = waitFor(next, journaler.sequence);
+            if (available < 0) {
+                return;
+            }
+            for (long sequence = next; sequence <= available; sequence++) {
+                Slot slot = ring[(int) sequence & mask];
+                // Futures were completed by the journal consumer
+                if (slot.tradeFuture != null && !slot.tradeFuture.isCompletedExceptionally()) {
+                    displayListener.accept(slot.tradeFuture.getNow(null));
+                }
+            }
+            display.sequence.lazySet(available);
+            next = available + 1;
+        }
+    }
+
+    // Metrics
+
+    public long getFilledCount() {
+        return filledCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Mean time from publishing an order to the business-logic thread having
+     * processed it, as seen by the metrics consumer.
+     */
+    public double getMeanLatencyNanos() {
+        long orders = filledCount.get() + rejectedCount.get();
+        return orders == 0 ? 0.0 : (double) totalLatencyNanos.get() / orders;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+    /**
+     * Stop accepting orders, let every stage drain what was already claimed
+     * and wait for the threads to finish.
+     */
+    @Override
+    public void close() {
+        claimed.getAndAccumulate(CLOSED, (value, flag) -> value | flag);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
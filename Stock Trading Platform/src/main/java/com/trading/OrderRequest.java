@@ -0,0 +1,47 @@
+package com.trading;
+
+/**
+ * A market order to be executed as part of a batch.
+ */
+public class OrderRequest {
+    private final TransactionType type;
+    private final String userId;
+    private final String symbol;
+    private final int quantity;
+
+    public OrderRequest(TransactionType type, String userId, String symbol, int quantity) {
+        this.type = type;
+        this.userId = userId;
+        this.symbol = symbol;
+        this.quantity = quantity;
+    }
+
+    public static OrderRequest buy(String userId, String symbol, int quantity) {
+        return new OrderRequest(TransactionType.BUY, userId, symbol, quantity);
+    }
+
+    public static OrderRequest sell(String userId, String symbol, int quantity) {
+        return new OrderRequest(TransactionType.SELL, userId, symbol, quantity);
+    }
+
+    public TransactionType getType() {
+        return type;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d %s for %s", type, quantity, symbol, userId);
+    }
+}
@@ -0,0 +1,20 @@
+package com.trading;
+
+/**
+ * Outcome of a market order, reported without building a message string.
+ */
+public enum OrderStatus {
+    FILLED,
+    UNKNOWN_USER,
+    UNKNOWN_STOCK,
+    INVALID_QUANTITY,
+    INSUFFICIENT_FUNDS,
+    INSUFFICIENT_SHARES,
+    /** Valid on its own, but not executed because another order in its all-or-nothing batch failed. */
+    BATCH_REJECTED,
+    ERROR;
+
+    public boolean isSuccess() {
+        return this == FILLED;
+    }
+}
@@ -0,0 +1,362 @@
+package com.trading;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Compressed, append-only series of (timestamp, value) points.
+ *
+ * Points are packed into a bit stream in the style of Facebook's Gorilla
+ * format: timestamps (epoch millis) as a delta of the previous delta, which
+ * is a single bit for evenly spaced points, and values as the XOR with the
+ * previous value, which for a slowly moving equity curve usually needs only
+ * a few meaningful bits. Every {@value #BLOCK_POINTS} points the encoder
+ * restarts from raw values, so a time range can be read by decoding from
+ * the nearest block instead of the beginning.
+ */
+public class PerformanceSeries {
+    private static final int BLOCK_POINTS = 256;
+
+    private long[] words = new long[16];
+    private long bitLength;
+    private int count;
+    private long[] blockOffsets = new long[4];
+    private long[] blockTimestamps = new long[4];
+    private boolean ordered = true;
+
+    // Encoder state
+    private long lastTimestamp;
+    private long lastDelta;
+    private long lastBits;
+    private int lastLeading = -1;
+    private int lastTrailing;
+
+    /**
+     * Callback for reading points without allocating them.
+     */
+    public interface PointVisitor {
+        void visit(long timestampMillis, double value);
+    }
+
+    /**
+     * Convert a local date-time in the system time zone to the epoch millis
+     * stored in a series.
+     */
+    static long toMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Convert epoch millis to a local date-time in the system time zone.
+     */
+    static LocalDateTime toDateTime(long timestampMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestampMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * Append a point. Timestamps are expected not to decrease; if one does,
+     * the series stays correct but range reads scan from the start.
+     */
+    void append(long timestampMillis, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        if (count % BLOCK_POINTS == 0) {
+            startBlock(timestampMillis);
+            writeBits(timestampMillis, 64);
+            writeBits(bits, 64);
+            lastDelta = 0;
+            lastLeading = -1;
+        } else {
+            if (timestampMillis < lastTimestamp) {
+                ordered = false;
+            }
+            long delta = timestampMillis - lastTimestamp;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            writeXor(bits ^ lastBits);
+        }
+        lastTimestamp = timestampMillis;
+        lastBits = bits;
+        count++;
+    }
+
+    private void startBlock(long timestampMillis) {
+        int block = count / BLOCK_POINTS;
+        if (block == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+            blockTimestamps = Arrays.copyOf(blockTimestamps, block * 2);
+        }
+        if (block > 0 && timestampMillis < lastTimestamp) {
+            ordered = false;
+        }
+        blockOffsets[block] = bitLength;
+        blockTimestamps[block] = timestampMillis;
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            writeBits(0b0, 1);
+        } else if (dod >= -64 && dod < 64) {
+            writeBits(0b10, 2);
+            writeBits(dod, 7);
+        } else if (dod >= -256 && dod < 256) {
+            writeBits(0b110, 3);
+            writeBits(dod, 9);
+        } else if (dod >= -2048 && dod < 2048) {
+            writeBits(0b1110, 4);
+            writeBits(dod, 12);
+        } else if (dod >= Integer.MIN_VALUE && dod <= Integer.MAX_VALUE) {
+            writeBits(0b11110, 5);
+            writeBits(dod, 32);
+        } else {
+            writeBits(0b11111, 5);
+            writeBits(dod, 64);
+        }
+    }
+
+    private void writeXor(long xor) {
+        if (xor == 0) {
+            writeBits(0b0, 1);
+            return;
+        }
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+            // Meaningful bits fit in the previous window
+            writeBits(0b10, 2);
+            writeBits(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+        } else {
+            int significant = 64 - leading - trailing;
+            writeBits(0b11, 2);
+            writeBits(leading, 5);
+            writeBits(significant - 1, 6);
+            writeBits(xor >>> trailing, significant);
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+    }
+
+    /**
+     * Write the low bits of a value, most significant first.
+     */
+    private void writeBits(long value, int bits) {
+        int word = (int) (bitLength >>> 6);
+        if (word + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        value &= mask(bits);
+        int free = 64 - (int) (bitLength & 63);
+        if (bits <= free) {
+            words[word] |= value << (free - bits);
+        } else {
+            int overflow = bits - free;
+            words[word] |= value >>> overflow;
+            words[word + 1] |= value << (64 - overflow);
+        }
+        bitLength += bits;
+    }
+
+    private static long mask(int bits) {
+        return bits == 64 ? -1L : (1L << bits) - 1;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Timestamp of the latest point, or 0 if empty.
+     */
+    public long getLastTimestamp() {
+        return count > 0 ? lastTimestamp : 0;
+    }
+
+    /**
+     * Value of the latest point, or NaN if empty.
+     */
+    public double getLastValue() {
+        return count > 0 ? Double.longBitsToDouble(lastBits) : Double.NaN;
+    }
+
+    /**
+     * Approximate memory used by the encoded points.
+     */
+    public long getEncodedBytes() {
+        return (bitLength + 7) / 8 + (long) ((count + BLOCK_POINTS - 1) / BLOCK_POINTS) * 16;
+    }
+
+    /**
+     * Visit every point, oldest first.
+     */
+    public void forEach(PointVisitor visitor) {
+        new Cursor(0).visit(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Visit the points with fromMillis &lt;= timestamp &lt; toMillis, oldest
+     * first.
+     */
+    public void forEachInRange(long fromMillis, long toMillis, PointVisitor visitor) {
+        int block = 0;
+        if (ordered) {
+            // Last block starting at or before the range
+            int low = 0;
+            int high = (count + BLOCK_POINTS - 1) / BLOCK_POINTS;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (blockTimestamps[mid] <= fromMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            block = Math.max(0, low - 1);
+        }
+        new Cursor(block).visit(fromMillis, toMillis, visitor);
+    }
+
+    /**
+     * Reduce the points in a range to one per fixed-width bucket: the last
+     * value seen in the bucket, reported at the bucket's start time.
+     */
+    public void downsample(long fromMillis, long toMillis, long bucketMillis, PointVisitor visitor) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("Bucket width must be positive");
+        }
+        Downsampler downsampler = new Downsampler(bucketMillis, visitor);
+        forEachInRange(fromMillis, toMillis, downsampler);
+        downsampler.flush();
+    }
+
+    /**
+     * Decoder positioned at the start of a block.
+     */
+    private final class Cursor {
+        private long position;
+        private int remaining;
+        private int index;
+        private long timestamp;
+        private long delta;
+        private long bits;
+        private int leading;
+        private int trailing;
+
+        Cursor(int block) {
+            index = block * BLOCK_POINTS;
+            remaining = count - index;
+            position = remaining > 0 ? blockOffsets[block] : bitLength;
+        }
+
+        void visit(long fromMillis, long toMillis, PointVisitor visitor) {
+            for (; remaining > 0; remaining--, index++) {
+                next();
+                if (timestamp >= toMillis && ordered) {
+                    return;
+                }
+                if (timestamp >= fromMillis && timestamp < toMillis) {
+                    visitor.visit(timestamp, Double.longBitsToDouble(bits));
+                }
+            }
+        }
+
+        private void next() {
+            if (index % BLOCK_POINTS == 0) {
+                timestamp = readBits(64);
+                bits = readBits(64);
+                delta = 0;
+                leading = -1;
+                return;
+            }
+            delta += readDeltaOfDelta();
+            timestamp += delta;
+            if (readBits(1) == 0) {
+                return;
+            }
+            if (readBits(1) == 0) {
+                bits ^= readBits(64 - leading - trailing) << trailing;
+            } else {
+                leading = (int) readBits(5);
+                int significant = (int) readBits(6) + 1;
+                trailing = 64 - leading - significant;
+                bits ^= readBits(significant) << trailing;
+            }
+        }
+
+        private long readDeltaOfDelta() {
+            if (readBits(1) == 0) {
+                return 0;
+            }
+            if (readBits(1) == 0) {
+                return signed(readBits(7), 7);
+            }
+            if (readBits(1) == 0) {
+                return signed(readBits(9), 9);
+            }
+            if (readBits(1) == 0) {
+                return signed(readBits(12), 12);
+            }
+            if (readBits(1) == 0) {
+                return signed(readBits(32), 32);
+            }
+            return readBits(64);
+        }
+
+        private long signed(long value, int bits) {
+            return (value << (64 - bits)) >> (64 - bits);
+        }
+
+        private long readBits(int bits) {
+            int word = (int) (position >>> 6);
+            int free = 64 - (int) (position & 63);
+            long value;
+            if (bits <= free) {
+                value = (words[word] >>> (free - bits)) & mask(bits);
+            } else {
+                int overflow = bits - free;
+                value = ((words[word] & mask(free)) << overflow) | (words[word + 1] >>> (64 - overflow));
+            }
+            position += bits;
+            return value;
+        }
+    }
+
+    /**
+     * Keeps the last point of the current bucket and reports it when the
+     * next bucket starts.
+     */
+    private static final class Downsampler implements PointVisitor {
+        private final long bucketMillis;
+        private final PointVisitor target;
+        private boolean pending;
+        private long bucket;
+        private double value;
+
+        Downsampler(long bucketMillis, PointVisitor target) {
+            this.bucketMillis = bucketMillis;
+            this.target = target;
+        }
+
+        @Override
+        public void visit(long timestampMillis, double value) {
+            long start = timestampMillis - Math.floorMod(timestampMillis, bucketMillis);
+            if (pending && start != bucket) {
+                target.visit(bucket, this.value);
+            }
+            pending = true;
+            bucket = start;
+            this.value = value;
+        }
+
+        void flush() {
+            if (pending) {
+                target.visit(bucket, value);
+                pending = false;
+            }
+        }
+    }
+}
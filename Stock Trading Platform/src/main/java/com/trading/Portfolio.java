@@ -13,25 +13,44 @@ import java.util.Map;
 public class Portfolio implements Serializable {
     private static final long serialVersionUID = 1L;
     private String userId;
-    private Map<String, Integer> holdings; // symbol -> quantity
-    private List<Transaction> transactions;
-    private List<PerformancePoint> performanceHistory;
+    private HoldingsMap holdings; // symbol ID -> quantity
+    private Map<String, Position> positions; // symbol -> running cost and realized P/L
+    private double netInvested; // buys minus sells
+    private TransactionStore transactions;
+    private boolean sharedLog; // transactions is appended to by the user
+    private PerformanceSeries performanceHistory;
+    private transient DeferredHistory deferredHistory;
+    private transient Map<String, Integer> reservedShares; // held for open sell orders
+    private transient HolderIndex holderIndex;
+    private transient volatile double markedValue;
+    private transient volatile long markedVersion = -1;
 
     /**
      * Inner class to represent a performance point in history.
      */
     public static class PerformancePoint implements Serializable {
         private static final long serialVersionUID = 1L;
-        private LocalDateTime timestamp;
+        private long timestampMillis; // epoch millis
         private double value;
 
-        public PerformancePoint(LocalDateTime timestamp, double value) {
-            this.timestamp = timestamp;
+        public PerformancePoint(long timestampMillis, double value) {
+            this.timestampMillis = timestampMillis;
             this.value = value;
         }
 
+        public PerformancePoint(LocalDateTime timestamp, double value) {
+            this(PerformanceSeries.toMillis(timestamp), value);
+        }
+
+        /**
+         * Time of the point in the system time zone, for display.
+         */
         public LocalDateTime getTimestamp() {
-            return timestamp;
+            return PerformanceSeries.toDateTime(timestampMillis);
+        }
+
+        public long getTimestampMillis() {
+            return timestampMillis;
         }
 
         public double getValue() {
@@ -39,50 +58,228 @@ public class Portfolio implements Serializable {
         }
     }
 
+    /**
+     * Running cost basis and realized profit/loss of one symbol, kept at
+     * average cost: a sale releases the cost of the shares sold in
+     * proportion to the quantity held.
+     */
+    public static class Position implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private double costBasis;
+        private double realizedProfitLoss;
+
+        public Position(double costBasis, double realizedProfitLoss) {
+            this.costBasis = costBasis;
+            this.realizedProfitLoss = realizedProfitLoss;
+        }
+
+        /**
+         * Cost of the shares still held.
+         */
+        public double getCostBasis() {
+            return costBasis;
+        }
+
+        /**
+         * Profit or loss locked in by sales so far.
+         */
+        public double getRealizedProfitLoss() {
+            return realizedProfitLoss;
+        }
+    }
+
     /**
      * Initialize a portfolio for a user.
      *
      * @param userId ID of the user who owns this portfolio
      */
     public Portfolio(String userId) {
+        this(userId, new TransactionStore(), false);
+    }
+
+    /**
+     * Initialize a portfolio that reads the owning user's transaction log, so
+     * the account keeps one copy of its trades. The user appends to the log;
+     * the portfolio only updates its holdings through {@link #applyTransaction}.
+     */
+    Portfolio(String userId, TransactionStore transactions) {
+        this(userId, transactions, true);
+    }
+
+    private Portfolio(String userId, TransactionStore transactions, boolean sharedLog) {
         this.userId = userId;
-        this.holdings = new HashMap<>();
-        this.transactions = new ArrayList<>();
-        this.performanceHistory = new ArrayList<>();
+        this.holdings = new HoldingsMap();
+        this.positions = new HashMap<>();
+        this.transactions = transactions;
+        this.sharedLog = sharedLog;
+        this.performanceHistory = new PerformanceSeries();
     }
 
     /**
-     * Add a transaction and update holdings.
+     * Add a transaction and update holdings, cost basis and profit/loss.
+     *
+     * @throws IllegalStateException if the portfolio shares its user's log
      */
     public void addTransaction(Transaction transaction) {
+        if (sharedLog) {
+            throw new IllegalStateException("Transactions of " + userId + " are recorded through the user");
+        }
         this.transactions.add(transaction);
+        applyToPosition(transaction);
+    }
+
+    /**
+     * Update holdings, cost basis and profit/loss for a transaction the
+     * user has already added to the shared log.
+     */
+    void applyTransaction(Transaction transaction) {
+        applyToPosition(transaction);
+    }
+
+    private void applyToPosition(Transaction transaction) {
         String symbol = transaction.getStockSymbol();
+        Position position = positions.computeIfAbsent(symbol, key -> new Position(0.0, 0.0));
+        double total = transaction.getTotalValue();
+
+        int symbolId = SymbolTable.idOf(symbol);
 
         if (transaction.getTransactionType() == TransactionType.BUY) {
-            holdings.put(symbol, holdings.getOrDefault(symbol, 0) + transaction.getQuantity());
+            if (holdings.add(symbolId, transaction.getQuantity()) == transaction.getQuantity()
+                    && holderIndex != null) {
+                holderIndex.opened(symbol, this);
+            }
+            position.costBasis += total;
+            netInvested += total;
         } else if (transaction.getTransactionType() == TransactionType.SELL) {
-            int currentQuantity = holdings.getOrDefault(symbol, 0);
-            int newQuantity = currentQuantity - transaction.getQuantity();
+            long currentQuantity = holdings.get(symbolId);
+            long newQuantity = holdings.add(symbolId, -transaction.getQuantity());
+            double releasedCost = newQuantity <= 0 ? position.costBasis
+                    : position.costBasis * transaction.getQuantity() / currentQuantity;
+            position.costBasis -= releasedCost;
+            position.realizedProfitLoss += total - releasedCost;
+            netInvested -= total;
             if (newQuantity <= 0) {
-                holdings.remove(symbol);
-            } else {
-                holdings.put(symbol, newQuantity);
+                position.costBasis = 0.0;
+                if (currentQuantity > 0 && holderIndex != null) {
+                    holderIndex.closed(symbol, this);
+                }
             }
         }
     }
 
     /**
-     * Get current stock holdings.
+     * Get a copy of the current stock holdings.
      */
     public Map<String, Integer> getHoldings() {
-        return new HashMap<>(holdings);
+        return holdings.toMap();
+    }
+
+    /**
+     * Live, read-only view of the current holdings. Nothing is copied, so
+     * the caller must hold the account steady while reading it.
+     */
+    public Map<String, Integer> getHoldingsView() {
+        return holdings.asMap();
+    }
+
+    /**
+     * Visit every holding by symbol ID without allocating.
+     */
+    public void forEachHolding(HoldingsMap.Visitor visitor) {
+        holdings.forEach(visitor);
+    }
+
+    public int getHoldingCount() {
+        return holdings.size();
     }
 
     /**
      * Get quantity of a specific stock.
      */
     public int getQuantity(String symbol) {
-        return holdings.getOrDefault(symbol.toUpperCase(), 0);
+        int symbolId = SymbolTable.find(symbol);
+        return symbolId != 0 ? (int) holdings.get(symbolId) : 0;
+    }
+
+    /**
+     * Quantity of a stock not held back for open sell orders.
+     */
+    public int getAvailableQuantity(String symbol) {
+        String key = symbol.toUpperCase();
+        int reserved = reservedShares != null ? reservedShares.getOrDefault(key, 0) : 0;
+        return getQuantity(key) - reserved;
+    }
+
+    /**
+     * Hold back shares for an open sell order.
+     */
+    void reserveShares(String symbol, int quantity) {
+        if (reservedShares == null) {
+            reservedShares = new HashMap<>();
+        }
+        reservedShares.merge(symbol.toUpperCase(), quantity, Integer::sum);
+    }
+
+    /**
+     * Release shares held for an order that filled or was cancelled.
+     */
+    void releaseShares(String symbol, int quantity) {
+        if (reservedShares != null) {
+            reservedShares.computeIfPresent(symbol.toUpperCase(),
+                    (key, reserved) -> reserved > quantity ? reserved - quantity : null);
+        }
+    }
+
+    /**
+     * Cost of the shares of a stock still held.
+     */
+    public double getCostBasis(String symbol) {
+        Position position = positions.get(symbol.toUpperCase());
+        return position != null ? position.costBasis : 0.0;
+    }
+
+    /**
+     * Average price paid per share still held, or 0 if none are held.
+     */
+    public double getAverageCost(String symbol) {
+        int quantity = getQuantity(symbol);
+        return quantity > 0 ? getCostBasis(symbol) / quantity : 0.0;
+    }
+
+    /**
+     * Profit or loss locked in by sales of a stock.
+     */
+    public double getRealizedProfitLoss(String symbol) {
+        Position position = positions.get(symbol.toUpperCase());
+        return position != null ? position.realizedProfitLoss : 0.0;
+    }
+
+    /**
+     * Profit or loss locked in by all sales.
+     */
+    public double getRealizedProfitLoss() {
+        double total = 0.0;
+        for (Position position : positions.values()) {
+            total += position.realizedProfitLoss;
+        }
+        return total;
+    }
+
+    /**
+     * Total spent on purchases minus total received from sales.
+     */
+    public double getNetInvested() {
+        return netInvested;
+    }
+
+    /**
+     * Copy of the running position of every symbol ever traded.
+     */
+    public Map<String, Position> getPositions() {
+        Map<String, Position> copy = new HashMap<>(positions.size() * 2);
+        positions.forEach((symbol, position) ->
+                copy.put(symbol, new Position(position.costBasis, position.realizedProfitLoss)));
+        return copy;
     }
 
     /**
@@ -93,41 +290,108 @@ public class Portfolio implements Serializable {
      */
     public double calculateTotalValue(Map<String, Stock> stocks) {
         double total = 0.0;
-        for (Map.Entry<String, Integer> entry : holdings.entrySet()) {
-            String symbol = entry.getKey();
-            int quantity = entry.getValue();
-            if (stocks.containsKey(symbol)) {
-                total += stocks.get(symbol).getCurrentPrice() * quantity;
+        for (int slot = 0; slot < holdings.slots(); slot++) {
+            int symbolId = holdings.symbolIdAt(slot);
+            if (symbolId != 0) {
+                Stock stock = stocks.get(SymbolTable.symbolOf(symbolId));
+                if (stock != null) {
+                    total += stock.getCurrentPrice() * holdings.quantityAt(slot);
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Calculate total portfolio value at current prices without allocating.
+     *
+     * @param market Listing to price holdings against
+     * @return Total portfolio value
+     */
+    public double calculateTotalValue(MarketSnapshot market) {
+        double total = 0.0;
+        for (int slot = 0; slot < holdings.slots(); slot++) {
+            int symbolId = holdings.symbolIdAt(slot);
+            if (symbolId != 0) {
+                double price = market.currentPriceOf(symbolId);
+                if (!Double.isNaN(price)) {
+                    total += price * holdings.quantityAt(slot);
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Value the holdings against a shared vector of prices indexed by
+     * symbol ID and keep the result as the latest mark. Symbols outside the
+     * vector are valued at 0.
+     *
+     * @param pricesById Prices by {@link SymbolTable} ID; read only
+     * @param version Version of the market snapshot the prices come from
+     * @return Market value of the holdings
+     */
+    double markToMarket(double[] pricesById, long version) {
+        double total = 0.0;
+        for (int slot = 0; slot < holdings.slots(); slot++) {
+            int symbolId = holdings.symbolIdAt(slot);
+            if (symbolId != 0 && symbolId < pricesById.length) {
+                total += pricesById[symbolId] * holdings.quantityAt(slot);
             }
         }
+        markedValue = total;
+        markedVersion = version;
         return total;
     }
 
     /**
-     * Calculate profit/loss metrics.
+     * Holdings value from the latest mark-to-market pass.
+     */
+    public double getMarkedValue() {
+        return markedValue;
+    }
+
+    /**
+     * Market snapshot version of the latest mark, or -1 if never marked.
+     */
+    public long getMarkedVersion() {
+        return markedVersion;
+    }
+
+    /**
+     * Calculate profit/loss metrics from the running positions; only
+     * current holdings are priced.
      *
      * @param stocks Map of Stock objects keyed by symbol
      * @param initialBalance User's initial cash balance
      * @return Map with P/L metrics
      */
     public Map<String, Double> calculateProfitLoss(Map<String, Stock> stocks, double initialBalance) {
-        double currentValue = calculateTotalValue(stocks);
-
-        // Calculate total cost basis
-        double totalCost = 0.0;
-        for (Transaction transaction : transactions) {
-            if (transaction.getTransactionType() == TransactionType.BUY) {
-                totalCost += transaction.getTotalValue();
-            } else if (transaction.getTransactionType() == TransactionType.SELL) {
-                totalCost -= transaction.getTotalValue();
+        double currentValue = 0.0;
+        double heldCost = 0.0;
+        for (int slot = 0; slot < holdings.slots(); slot++) {
+            int symbolId = holdings.symbolIdAt(slot);
+            if (symbolId == 0) {
+                continue;
+            }
+            String symbol = SymbolTable.symbolOf(symbolId);
+            Stock stock = stocks.get(symbol);
+            if (stock != null) {
+                currentValue += stock.getCurrentPrice() * holdings.quantityAt(slot);
+                heldCost += getCostBasis(symbol);
             }
         }
 
+        // Net amount put into the market so far
+        double totalCost = netInvested;
+
         // Current holdings value
         double holdingsValue = currentValue;
 
         // Total profit/loss
         double totalPnl = holdingsValue - totalCost;
+        double realizedPnl = getRealizedProfitLoss();
+        double unrealizedPnl = currentValue - heldCost;
 
         // Percentage return
         double pnlPercent = totalCost > 0 ? (totalPnl / totalCost) * 100.0 : 0.0;
@@ -137,6 +401,8 @@ public class Portfolio implements Serializable {
         result.put("current_value", currentValue);
         result.put("profit_loss", totalPnl);
         result.put("profit_loss_percent", pnlPercent);
+        result.put("realized_pnl", realizedPnl);
+        result.put("unrealized_pnl", unrealizedPnl);
         result.put("holdings_value", holdingsValue);
 
         return result;
@@ -144,24 +410,125 @@ public class Portfolio implements Serializable {
 
     /**
      * Record current portfolio performance snapshot.
+     *
+     * @param timestampMillis Time of the snapshot in epoch millis, read from the market's clock
+     * @return The recorded performance point
      */
-    public void recordPerformance(Map<String, Stock> stocks) {
-        double totalValue = calculateTotalValue(stocks);
-        performanceHistory.add(new PerformancePoint(LocalDateTime.now(), totalValue));
+    public PerformancePoint recordPerformance(Map<String, Stock> stocks, long timestampMillis) {
+        return recordPerformance(calculateTotalValue(stocks), timestampMillis);
     }
 
     /**
-     * Get portfolio performance over time.
+     * Record current portfolio performance priced against a market snapshot.
+     *
+     * @param timestampMillis Time of the snapshot in epoch millis, read from the market's clock
+     * @return The recorded performance point
+     */
+    public PerformancePoint recordPerformance(MarketSnapshot market, long timestampMillis) {
+        return recordPerformance(calculateTotalValue(market), timestampMillis);
+    }
+
+    private PerformancePoint recordPerformance(double totalValue, long timestampMillis) {
+        PerformancePoint point = new PerformancePoint(timestampMillis, totalValue);
+        restorePerformance(point);
+        return point;
+    }
+
+    /**
+     * Restore a previously recorded performance point (used when replaying the journal).
+     */
+    void restorePerformance(PerformancePoint point) {
+        performanceHistory.append(point.getTimestampMillis(), point.getValue());
+    }
+
+    /**
+     * Restore a holding from a snapshot without a matching transaction.
+     */
+    void restoreHolding(String symbol, int quantity) {
+        holdings.put(SymbolTable.idOf(symbol), quantity);
+        if (holderIndex != null && quantity > 0) {
+            holderIndex.opened(symbol, this);
+        }
+    }
+
+    /**
+     * Report positions opening and closing to the given index.
+     */
+    void setHolderIndex(HolderIndex holderIndex) {
+        this.holderIndex = holderIndex;
+    }
+
+    /**
+     * Restore the running position of a symbol from a snapshot.
+     */
+    void restorePosition(String symbol, Position position) {
+        positions.put(symbol, new Position(position.costBasis, position.realizedProfitLoss));
+    }
+
+    void restoreNetInvested(double netInvested) {
+        this.netInvested = netInvested;
+    }
+
+    /**
+     * Attach history that is read from the journal on first use.
+     */
+    void setDeferredHistory(DeferredHistory deferredHistory) {
+        this.deferredHistory = deferredHistory;
+    }
+
+    /**
+     * Place older, lazily loaded performance points in front of the recent
+     * ones. The older trades go into the transaction log shared with the
+     * user, so they are prepended there once.
+     */
+    void prependPerformance(PerformanceSeries olderPerformance) {
+        PerformanceSeries mergedPerformance = new PerformanceSeries();
+        olderPerformance.forEach(mergedPerformance::append);
+        performanceHistory.forEach(mergedPerformance::append);
+        performanceHistory = mergedPerformance;
+    }
+
+    private void loadDeferredHistory() {
+        if (deferredHistory != null) {
+            deferredHistory.ensureLoaded();
+        }
+    }
+
+    /**
+     * Get portfolio performance over time as a list of points. Prefer
+     * {@link #getPerformanceSeries()} for long histories.
      */
     public List<PerformancePoint> getPerformanceHistory() {
-        return new ArrayList<>(performanceHistory);
+        loadDeferredHistory();
+        List<PerformancePoint> points = new ArrayList<>(performanceHistory.size());
+        performanceHistory.forEach((timestamp, value) ->
+                points.add(new PerformancePoint(timestamp, value)));
+        return points;
+    }
+
+    /**
+     * Compressed performance history, read in place without materializing
+     * points.
+     */
+    public PerformanceSeries getPerformanceSeries() {
+        loadDeferredHistory();
+        return performanceHistory;
     }
 
     /**
      * Get all transactions in this portfolio.
      */
     public List<Transaction> getTransactionHistory() {
-        return new ArrayList<>(transactions);
+        loadDeferredHistory();
+        return transactions.toList();
+    }
+
+    /**
+     * Indexed transaction history for paged queries.
+     */
+    public TransactionStore getTransactions() {
+        loadDeferredHistory();
+        return transactions;
     }
 
     public String getUserId() {
@@ -172,7 +539,7 @@ public class Portfolio implements Serializable {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("Portfolio(user_id=").append(userId).append(", holdings=");
-        holdings.forEach((sym, qty) -> sb.append(sym).append(":").append(qty).append(", "));
+        holdings.asMap().forEach((sym, qty) -> sb.append(sym).append(":").append(qty).append(", "));
         if (!holdings.isEmpty()) {
             sb.setLength(sb.length() - 2); // Remove trailing ", "
         }
@@ -0,0 +1,225 @@
+package com.trading;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Append-only, memory-mapped tick history for a single stock.
+ *
+ * Timestamps (epoch millis) and prices live in two column files,
+ * SYMBOL.ts and SYMBOL.px, mapped in fixed-size chunks so the data sits
+ * off-heap in the page cache rather than on the Java heap. Timestamps never
+ * decrease, which turns time-window lookups into a binary search and lets a
+ * reopened store find its end as the first zero timestamp.
+ */
+public class PriceHistoryStore implements Closeable {
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_ENTRIES = 1 << CHUNK_SHIFT;
+    private static final long CHUNK_BYTES = (long) CHUNK_ENTRIES * Long.BYTES;
+
+    private final String symbol;
+    private final FileChannel timestampFile;
+    private final FileChannel priceFile;
+    private volatile MappedByteBuffer[] timestampChunks;
+    private volatile MappedByteBuffer[] priceChunks;
+    private volatile long size;
+
+    /**
+     * Callback for iterating ticks without allocating point objects.
+     */
+    public interface TickVisitor {
+        void visit(long timestamp, double price);
+    }
+
+    /**
+     * Open (or create) the history of a symbol in the given directory.
+     */
+    public PriceHistoryStore(Path dir, String symbol) throws IOException {
+        this.symbol = symbol.toUpperCase();
+        Files.createDirectories(dir);
+        this.timestampFile = FileChannel.open(dir.resolve(this.symbol + ".ts"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.priceFile = FileChannel.open(dir.resolve(this.symbol + ".px"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        int chunks = (int) ((timestampFile.size() + CHUNK_BYTES - 1) / CHUNK_BYTES);
+        timestampChunks = new MappedByteBuffer[chunks];
+        priceChunks = new MappedByteBuffer[chunks];
+        for (int i = 0; i < chunks; i++) {
+            timestampChunks[i] = map(timestampFile, i);
+            priceChunks[i] = map(priceFile, i);
+        }
+        size = findEnd((long) chunks * CHUNK_ENTRIES);
+    }
+
+    private static MappedByteBuffer map(FileChannel file, int chunk) throws IOException {
+        return file.map(FileChannel.MapMode.READ_WRITE, chunk * CHUNK_BYTES, CHUNK_BYTES);
+    }
+
+    /**
+     * Unused slots are zero-filled; find the first one.
+     */
+    private long findEnd(long capacity) {
+        long low = 0;
+        long high = capacity;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (timestampAt(mid) != 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Append a tick. A timestamp earlier than the last one is clamped to it.
+     */
+    public synchronized void append(long timestamp, double price) {
+        long index = size;
+        if (index > 0) {
+            timestamp = Math.max(timestamp, timestampAt(index - 1));
+        }
+        if (timestamp <= 0) {
+            throw new IllegalArgumentException("Tick timestamp must be positive");
+        }
+        int chunk = (int) (index >>> CHUNK_SHIFT);
+        if (chunk == timestampChunks.length) {
+            grow();
+        }
+        int offset = (int) (index & (CHUNK_ENTRIES - 1)) * Long.BYTES;
+        priceChunks[chunk].putDouble(offset, price);
+        // The timestamp marks the slot as used, so it is written last
+        timestampChunks[chunk].putLong(offset, timestamp);
+        size = index + 1;
+    }
+
+    private void grow() {
+        int chunk = timestampChunks.length;
+        try {
+            MappedByteBuffer[] timestamps = Arrays.copyOf(timestampChunks, chunk + 1);
+            MappedByteBuffer[] prices = Arrays.copyOf(priceChunks, chunk + 1);
+            timestamps[chunk] = map(timestampFile, chunk);
+            prices[chunk] = map(priceFile, chunk);
+            priceChunks = prices;
+            timestampChunks = timestamps;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to extend price history of " + symbol, e);
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long timestampAt(long index) {
+        return timestampChunks[(int) (index >>> CHUNK_SHIFT)]
+                .getLong((int) (index & (CHUNK_ENTRIES - 1)) * Long.BYTES);
+    }
+
+    public double priceAt(long index) {
+        return priceChunks[(int) (index >>> CHUNK_SHIFT)]
+                .getDouble((int) (index & (CHUNK_ENTRIES - 1)) * Long.BYTES);
+    }
+
+    /**
+     * Index of the first tick at or after the given timestamp.
+     */
+    private long lowerBound(long timestamp, long end) {
+        long low = 0;
+        long high = end;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (timestampAt(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Ticks with fromMillis &lt;= timestamp &lt; toMillis, read in place from
+     * the mapped columns.
+     */
+    public Window window(long fromMillis, long toMillis) {
+        long end = size;
+        long start = lowerBound(fromMillis, end);
+        long stop = Math.max(start, lowerBound(toMillis, end));
+        return new Window(start, stop);
+    }
+
+    /**
+     * Every tick recorded so far.
+     */
+    public Window all() {
+        return new Window(0, size);
+    }
+
+    /**
+     * Flush written ticks to disk.
+     */
+    public void flush() {
+        for (MappedByteBuffer chunk : priceChunks) {
+            chunk.force();
+        }
+        for (MappedByteBuffer chunk : timestampChunks) {
+            chunk.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        timestampFile.close();
+        priceFile.close();
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Zero-copy view of a contiguous run of ticks.
+     */
+    public class Window {
+        private final long start;
+        private final long end;
+
+        private Window(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long size() {
+            return end - start;
+        }
+
+        public boolean isEmpty() {
+            return end == start;
+        }
+
+        public long timestampAt(long i) {
+            return PriceHistoryStore.this.timestampAt(start + i);
+        }
+
+        public double priceAt(long i) {
+            return PriceHistoryStore.this.priceAt(start + i);
+        }
+
+        public void forEach(TickVisitor visitor) {
+            for (long i = start; i < end; i++) {
+                visitor.visit(PriceHistoryStore.this.timestampAt(i), PriceHistoryStore.this.priceAt(i));
+            }
+        }
+    }
+}
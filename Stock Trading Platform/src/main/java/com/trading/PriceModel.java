@@ -0,0 +1,23 @@
+package com.trading;
+
+import java.util.SplittableRandom;
+
+/**
+ * Rule for moving every listed price one tick forward.
+ *
+ * {@link Market#updatePrices()} hands a model all prices at once as a
+ * primitive array in listing order, so a model can step thousands of
+ * symbols in one tight loop. Built-in models are in {@link PriceModels}.
+ * Models are only called under the market's lock and may keep state
+ * between ticks.
+ */
+public interface PriceModel {
+    /**
+     * Advance every price by one tick, in place.
+     *
+     * @param market Listing the prices belong to; prices[i] is the price of market.stockAt(i)
+     * @param prices Current prices, replaced by the next ones
+     * @param random Random source for this tick
+     */
+    void step(MarketSnapshot market, double[] prices, SplittableRandom random);
+}
@@ -0,0 +1,312 @@
+package com.trading;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Built-in {@link PriceModel}s.
+ *
+ * Volatility and drift are annual; dt is the length of one tick in years
+ * (1/252 is one trading day). Every model draws from the random source it
+ * is given, so a market seeded with the same value replays the same path.
+ */
+public final class PriceModels {
+    /** One trading day, in years. */
+    public static final double DAILY = 1.0 / 252;
+
+    private PriceModels() {
+    }
+
+    /**
+     * The original simulation: each price moves by a uniform random
+     * percentage of up to +/- maxChange.
+     */
+    public static PriceModel uniform(double maxChange) {
+        return (market, prices, random) -> {
+            for (int i = 0; i < prices.length; i++) {
+                prices[i] *= 1 + (random.nextDouble() * 2 - 1) * maxChange;
+            }
+        };
+    }
+
+    /**
+     * Geometric Brownian motion.
+     */
+    public static PriceModel geometricBrownian(double drift, double volatility, double dt) {
+        return new Diffusion(drift, volatility, dt, 0, 0, 0);
+    }
+
+    /**
+     * Geometric Brownian motion plus Poisson-timed jumps with normally
+     * distributed log size (Merton). The drift is compensated so the
+     * expected return stays at the given drift.
+     *
+     * @param jumpsPerYear Average number of jumps per year
+     * @param jumpMean Mean log size of a jump
+     * @param jumpVolatility Standard deviation of the log size of a jump
+     */
+    public static PriceModel jumpDiffusion(double drift, double volatility, double dt,
+                                           double jumpsPerYear, double jumpMean, double jumpVolatility) {
+        return new Diffusion(drift, volatility, dt, jumpsPerYear, jumpMean, jumpVolatility);
+    }
+
+    /**
+     * Log prices pulled back towards each symbol's level (exponential
+     * Ornstein-Uhlenbeck). A symbol's level is its price the first time the
+     * model sees it.
+     *
+     * @param speed Rate of reversion per year
+     */
+    public static PriceModel meanReversion(double speed, double volatility, double dt) {
+        return new MeanReversion(speed, volatility, dt);
+    }
+
+    /**
+     * Geometric Brownian motion with correlated shocks for the given
+     * symbols; any other listed symbol moves independently.
+     *
+     * @param symbols Symbols covered by the correlation matrix, in its order
+     * @param correlation Symmetric, positive definite correlation matrix
+     */
+    public static PriceModel correlated(String[] symbols, double[][] correlation,
+                                        double drift, double volatility, double dt) {
+        return new Correlated(symbols, cholesky(correlation), drift, volatility, dt);
+    }
+
+    /**
+     * Model chosen by name with typical parameters: uniform, gbm, jump or
+     * meanreversion.
+     */
+    public static PriceModel named(String name) {
+        switch (name.toLowerCase()) {
+            case "uniform":
+                return uniform(0.05);
+            case "gbm":
+                return geometricBrownian(0.08, 0.30, DAILY);
+            case "jump":
+                return jumpDiffusion(0.08, 0.25, DAILY, 4, -0.02, 0.08);
+            case "meanreversion":
+                return meanReversion(5, 0.30, DAILY);
+            default:
+                throw new IllegalArgumentException("Unknown price model " + name);
+        }
+    }
+
+    /**
+     * Lower-triangular L with L * L^T equal to the given matrix.
+     */
+    static double[][] cholesky(double[][] matrix) {
+        int n = matrix.length;
+        double[][] factor = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            if (matrix[i].length != n) {
+                throw new IllegalArgumentException("Correlation matrix must be square");
+            }
+            for (int j = 0; j <= i; j++) {
+                if (Math.abs(matrix[i][j] - matrix[j][i]) > 1e-12) {
+                    throw new IllegalArgumentException("Correlation matrix must be symmetric");
+                }
+                double sum = matrix[i][j];
+                for (int k = 0; k < j; k++) {
+                    sum -= factor[i][k] * factor[j][k];
+                }
+                if (i == j) {
+                    if (sum <= 0) {
+                        throw new IllegalArgumentException("Correlation matrix must be positive definite");
+                    }
+                    factor[i][i] = Math.sqrt(sum);
+                } else {
+                    factor[i][j] = sum / factor[j][j];
+                }
+            }
+        }
+        return factor;
+    }
+
+    /**
+     * Fill the first n entries with standard normal draws (polar method,
+     * two per pair of uniforms).
+     */
+    static void fillGaussian(SplittableRandom random, double[] out, int n) {
+        for (int i = 0; i < n; i += 2) {
+            double u;
+            double v;
+            double s;
+            do {
+                u = random.nextDouble() * 2 - 1;
+                v = random.nextDouble() * 2 - 1;
+                s = u * u + v * v;
+            } while (s >= 1 || s == 0);
+            double scale = Math.sqrt(-2 * Math.log(s) / s);
+            out[i] = u * scale;
+            if (i + 1 < n) {
+                out[i + 1] = v * scale;
+            }
+        }
+    }
+
+    private static double[] ensure(double[] buffer, int n) {
+        return buffer.length >= n ? buffer : new double[n];
+    }
+
+    /**
+     * Log-normal diffusion with optional Merton jumps.
+     */
+    private static final class Diffusion implements PriceModel {
+        private final double drift;
+        private final double scale;
+        private final double jumpProbabilityBase;
+        private final double jumpMean;
+        private final double jumpVolatility;
+        private double[] shocks = new double[0];
+        private final double[] jumpShock = new double[1];
+
+        Diffusion(double drift, double volatility, double dt,
+                  double jumpsPerYear, double jumpMean, double jumpVolatility) {
+            double compensation = jumpsPerYear * (Math.exp(jumpMean + jumpVolatility * jumpVolatility / 2) - 1);
+            this.drift = (drift - volatility * volatility / 2 - compensation) * dt;
+            this.scale = volatility * Math.sqrt(dt);
+            this.jumpProbabilityBase = Math.exp(-jumpsPerYear * dt);
+            this.jumpMean = jumpMean;
+            this.jumpVolatility = jumpVolatility;
+        }
+
+        @Override
+        public void step(MarketSnapshot market, double[] prices, SplittableRandom random) {
+            int n = prices.length;
+            shocks = ensure(shocks, n);
+            fillGaussian(random, shocks, n);
+            boolean jumps = jumpProbabilityBase < 1;
+            for (int i = 0; i < n; i++) {
+                double logReturn = drift + scale * shocks[i];
+                if (jumps) {
+                    logReturn += jump(random);
+                }
+                prices[i] *= Math.exp(logReturn);
+            }
+        }
+
+        /**
+         * Total log size of the jumps in one tick; the count is Poisson,
+         * drawn by inversion since it is almost always 0.
+         */
+        private double jump(SplittableRandom random) {
+            double threshold = jumpProbabilityBase;
+            double product = random.nextDouble();
+            double total = 0;
+            while (product > threshold) {
+                fillGaussian(random, jumpShock, 1);
+                total += jumpMean + jumpVolatility * jumpShock[0];
+                product *= random.nextDouble();
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Exponential Ornstein-Uhlenbeck process on each log price.
+     */
+    private static final class MeanReversion implements PriceModel {
+        private final double pull;
+        private final double scale;
+        private final Map<String, Double> levels = new HashMap<>();
+        private double[] logLevels = new double[0];
+        private double[] shocks = new double[0];
+        private MarketSnapshot boundTo;
+
+        MeanReversion(double speed, double volatility, double dt) {
+            this.pull = speed * dt;
+            this.scale = volatility * Math.sqrt(dt);
+        }
+
+        @Override
+        public void step(MarketSnapshot market, double[] prices, SplittableRandom random) {
+            int n = prices.length;
+            if (!market.hasSameListing(boundTo)) {
+                // Listing changed; line levels up with the new order
+                logLevels = new double[n];
+                for (int i = 0; i < n; i++) {
+                    String symbol = market.stockAt(i).getSymbol();
+                    Double level = levels.get(symbol);
+                    if (level == null) {
+                        level = prices[i];
+                        levels.put(symbol, level);
+                    }
+                    logLevels[i] = Math.log(level);
+                }
+                boundTo = market;
+            }
+            shocks = ensure(shocks, n);
+            fillGaussian(random, shocks, n);
+            for (int i = 0; i < n; i++) {
+                double log = Math.log(prices[i]);
+                prices[i] = Math.exp(log + pull * (logLevels[i] - log) + scale * shocks[i]);
+            }
+        }
+    }
+
+    /**
+     * Geometric Brownian motion whose shocks are mixed through a Cholesky
+     * factor for the covered symbols. A covered symbol that is not listed
+     * still gets its own shock, so the listed ones keep the correlations
+     * the matrix gives them.
+     */
+    private static final class Correlated implements PriceModel {
+        private final String[] symbols;
+        private final double[][] factor;
+        private final double drift;
+        private final double scale;
+        private int[] positions = new int[0]; // listing position of each covered symbol, or -1
+        private int[] draws = new int[0]; // index in shocks of each covered symbol's own shock
+        private int unlisted;
+        private MarketSnapshot boundTo;
+        private double[] shocks = new double[0];
+        private final double[] independent;
+
+        Correlated(String[] symbols, double[][] factor, double drift, double volatility, double dt) {
+            if (symbols.length != factor.length) {
+                throw new IllegalArgumentException("Need one symbol per row of the correlation matrix");
+            }
+            this.symbols = symbols.clone();
+            this.factor = factor;
+            this.drift = (drift - volatility * volatility / 2) * dt;
+            this.scale = volatility * Math.sqrt(dt);
+            this.independent = new double[symbols.length];
+        }
+
+        @Override
+        public void step(MarketSnapshot market, double[] prices, SplittableRandom random) {
+            int n = prices.length;
+            if (!market.hasSameListing(boundTo)) {
+                positions = new int[symbols.length];
+                draws = new int[symbols.length];
+                unlisted = 0;
+                for (int k = 0; k < symbols.length; k++) {
+                    positions[k] = market.indexOf(symbols[k]);
+                    draws[k] = positions[k] >= 0 ? positions[k] : n + unlisted++;
+                }
+                boundTo = market;
+            }
+            shocks = ensure(shocks, n + unlisted);
+            fillGaussian(random, shocks, n + unlisted);
+            for (int k = 0; k < symbols.length; k++) {
+                independent[k] = shocks[draws[k]];
+            }
+            for (int k = 0; k < symbols.length; k++) {
+                if (positions[k] < 0) {
+                    continue;
+                }
+                double mixed = 0;
+                double[] row = factor[k];
+                for (int j = 0; j <= k; j++) {
+                    mixed += row[j] * independent[j];
+                }
+                shocks[positions[k]] = mixed;
+            }
+            for (int i = 0; i < n; i++) {
+                prices[i] *= Math.exp(drift + scale * shocks[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.trading;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock that only moves when told to, for replaying history.
+ *
+ * Give one to a {@link Market} and everything timestamped through that
+ * market, ticks, bars and trades, carries the simulated time instead of the
+ * wall clock. Each backtest needs its own clock. Copies made with
+ * {@link #withZone} share its time and move with it.
+ */
+public class SimulatedClock extends Clock {
+    private final AtomicLong millis;
+    private final ZoneId zone;
+
+    public SimulatedClock(long startMillis) {
+        this(startMillis, ZoneOffset.UTC);
+    }
+
+    public SimulatedClock(long startMillis, ZoneId zone) {
+        this(new AtomicLong(startMillis), zone);
+    }
+
+    private SimulatedClock(AtomicLong millis, ZoneId zone) {
+        this.millis = millis;
+        this.zone = zone;
+    }
+
+    /**
+     * Move the clock to a time. Replays only move forward, but this is not
+     * enforced.
+     */
+    public void setMillis(long millis) {
+        this.millis.set(millis);
+    }
+
+    public void advance(long deltaMillis) {
+        millis.addAndGet(deltaMillis);
+    }
+
+    @Override
+    public long millis() {
+        return millis.get();
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis.get());
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * The same clock in another zone; setting or advancing either one moves
+     * both.
+     */
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return zone.equals(this.zone) ? this : new SimulatedClock(millis, zone);
+    }
+}
@@ -0,0 +1,116 @@
+package com.trading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of every account's balance and holdings, tagged with
+ * the journal sequence number it is current up to. Transaction and
+ * performance history are not included; they stay in the journal.
+ */
+public class Snapshot {
+    private final long sequence;
+    private final long historyBase;
+    private final List<Account> accounts;
+
+    /**
+     * Balance, holdings and running profit/loss state of a single account.
+     */
+    public static class Account {
+        private final String userId;
+        private final String name;
+        private final double balance;
+        private final double initialBalance;
+        private final Map<String, Integer> holdings;
+        private final double netInvested;
+        private final Map<String, Portfolio.Position> positions;
+
+        public Account(String userId, String name, double balance, double initialBalance,
+                       Map<String, Integer> holdings, double netInvested,
+                       Map<String, Portfolio.Position> positions) {
+            this.userId = userId;
+            this.name = name;
+            this.balance = balance;
+            this.initialBalance = initialBalance;
+            this.holdings = holdings;
+            this.netInvested = netInvested;
+            this.positions = positions;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getBalance() {
+            return balance;
+        }
+
+        public double getInitialBalance() {
+            return initialBalance;
+        }
+
+        public Map<String, Integer> getHoldings() {
+            return holdings;
+        }
+
+        /**
+         * Purchases minus sales over the account's lifetime.
+         */
+        public double getNetInvested() {
+            return netInvested;
+        }
+
+        /**
+         * Running position of every symbol traded.
+         */
+        public Map<String, Portfolio.Position> getPositions() {
+            return positions;
+        }
+    }
+
+    public Snapshot(long sequence, List<Account> accounts) {
+        this(sequence, 0, accounts);
+    }
+
+    Snapshot(long sequence, long historyBase, List<Account> accounts) {
+        this.sequence = sequence;
+        this.historyBase = historyBase;
+        this.accounts = accounts;
+    }
+
+    /**
+     * Copy balances, holdings and positions out of live users and portfolios.
+     * The caller must make sure no trade runs while this is in progress.
+     */
+    public static Snapshot capture(long sequence, Map<String, User> users, Map<String, Portfolio> portfolios) {
+        List<Account> accounts = new ArrayList<>(users.size());
+        for (User user : users.values()) {
+            Portfolio portfolio = portfolios.get(user.getUserId());
+            accounts.add(new Account(user.getUserId(), user.getName(), user.getBalance(),
+                    user.getInitialBalance(), portfolio != null ? portfolio.getHoldings() : Map.of(),
+                    user.getTotalInvested(), portfolio != null ? portfolio.getPositions() : Map.of()));
+        }
+        return new Snapshot(sequence, accounts);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Journal sequence number at or below which history lives in the
+     * migrated archive rather than the journal.
+     */
+    long getHistoryBase() {
+        return historyBase;
+    }
+
+    public List<Account> getAccounts() {
+        return accounts;
+    }
+}
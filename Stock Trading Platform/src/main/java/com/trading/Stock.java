@@ -1,9 +1,13 @@
 package com.trading;
 
 import java.io.Serializable;
+import java.time.Clock;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Stock class representing a single stock with price and trading data.
@@ -12,8 +16,12 @@ public class Stock implements Serializable {
     private static final long serialVersionUID = 1L;
     private String symbol;
     private String name;
-    private double currentPrice;
-    private List<PricePoint> priceHistory;
+    private volatile double currentPrice;
+    private double initialPrice;
+    private TickHistory ticks;
+    private transient PriceHistoryStore historyStore;
+    private transient int symbolId; // 0 until first looked up
+    private transient Clock clock;
     private int volume;
 
     /**
@@ -46,41 +54,105 @@ public class Stock implements Serializable {
      * @param initialPrice Starting price per share
      */
     public Stock(String symbol, String name, double initialPrice) {
+        this(symbol, name, initialPrice, CachedClock.systemDefault());
+    }
+
+    /**
+     * Initialize a stock that timestamps its ticks with the given clock.
+     */
+    Stock(String symbol, String name, double initialPrice, Clock clock) {
         this.symbol = symbol.toUpperCase();
         this.name = name;
         this.currentPrice = initialPrice;
-        this.priceHistory = new ArrayList<>();
-        this.priceHistory.add(new PricePoint(LocalDateTime.now(), initialPrice));
+        this.initialPrice = initialPrice;
+        this.clock = clock;
+        this.ticks = new TickHistory();
+        this.ticks.record(clock.millis(), initialPrice);
         this.volume = 0;
     }
 
+    private Clock clock() {
+        if (clock == null) {
+            clock = CachedClock.systemDefault();
+        }
+        return clock;
+    }
+
     /**
      * Update stock price with random fluctuation or set price.
      *
      * @param newPrice Optional fixed price, if null then random fluctuation
      * @return Updated price
      */
-    public double updatePrice(Double newPrice) {
+    public synchronized double updatePrice(Double newPrice) {
         if (newPrice != null) {
             this.currentPrice = newPrice;
         } else {
             // Random price fluctuation between -5% and +5%
-            double changePercent = (Math.random() * 0.10) - 0.05;
+            double changePercent = (ThreadLocalRandom.current().nextDouble() * 0.10) - 0.05;
             this.currentPrice = Math.max(0.01, this.currentPrice * (1 + changePercent));
         }
-        this.priceHistory.add(new PricePoint(LocalDateTime.now(), this.currentPrice));
+        recordPrice(clock().millis());
+        return this.currentPrice;
+    }
+
+    /**
+     * Move to a price produced by a {@link PriceModel} or replayed from
+     * history, never below one cent.
+     *
+     * @return The price applied
+     */
+    synchronized double applyPrice(double price, long timestampMillis) {
+        this.currentPrice = Math.max(0.01, price);
+        recordPrice(timestampMillis);
         return this.currentPrice;
     }
 
+    private void recordPrice(long now) {
+        ticks.record(now, currentPrice);
+        if (historyStore != null) {
+            historyStore.append(now, currentPrice);
+        }
+    }
+
+    /**
+     * Record an executed trade in the volume and the OHLCV bars.
+     */
+    public synchronized void recordTrade(int quantity, double price) {
+        volume += quantity;
+        ticks.recordTrade(clock().millis(), price, quantity);
+    }
+
+    /**
+     * Also archive every tick in a memory-mapped store. Ticks recorded so
+     * far are copied into the store.
+     */
+    void attachHistoryStore(PriceHistoryStore store) {
+        for (int i = 0; i < ticks.size(); i++) {
+            store.append(ticks.timestampAt(i), ticks.priceAt(i));
+        }
+        this.historyStore = store;
+    }
+
     /**
      * Calculate price change percentage from initial price.
      */
     public double getPriceChange() {
-        if (priceHistory.size() < 2) {
-            return 0.0;
+        return ((currentPrice - initialPrice) / initialPrice) * 100.0;
+    }
+
+    /**
+     * Calculate price change percentage over the given look-back period,
+     * using the finest retained resolution that reaches back that far.
+     * Falls back to the change from the initial price when history does not
+     * go back far enough.
+     */
+    public double getPriceChange(long periodMillis) {
+        double then = ticks.priceAsOf(clock().millis() - periodMillis);
+        if (Double.isNaN(then)) {
+            return getPriceChange();
         }
-        double initial = priceHistory.get(0).getPrice();
-        return ((currentPrice - initial) / initial) * 100.0;
+        return ((currentPrice - then) / then) * 100.0;
     }
 
     // Getters and Setters
@@ -88,6 +160,16 @@ public class Stock implements Serializable {
         return symbol;
     }
 
+    /**
+     * Dense ID of this stock's symbol in the {@link SymbolTable}.
+     */
+    public int getSymbolId() {
+        if (symbolId == 0) {
+            symbolId = SymbolTable.idOf(symbol);
+        }
+        return symbolId;
+    }
+
     public String getName() {
         return name;
     }
@@ -96,8 +178,46 @@ public class Stock implements Serializable {
         return currentPrice;
     }
 
+    /**
+     * Copy of the price history: the retained raw ticks, or with a history
+     * store attached every stored tick (prefer {@link #getPriceWindow}).
+     */
     public List<PricePoint> getPriceHistory() {
-        return new ArrayList<>(priceHistory);
+        if (historyStore == null) {
+            List<PricePoint> points = new ArrayList<>(ticks.size());
+            for (int i = 0; i < ticks.size(); i++) {
+                points.add(new PricePoint(LocalDateTime.ofInstant(Instant.ofEpochMilli(ticks.timestampAt(i)),
+                        ZoneId.systemDefault()), ticks.priceAt(i)));
+            }
+            return points;
+        }
+        PriceHistoryStore.Window window = historyStore.all();
+        List<PricePoint> points = new ArrayList<>((int) Math.min(window.size(), Integer.MAX_VALUE));
+        window.forEach((timestamp, price) -> points.add(new PricePoint(
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()), price)));
+        return points;
+    }
+
+    public TickHistory getTickHistory() {
+        return ticks;
+    }
+
+    /**
+     * OHLCV bars of one of the configured tier intervals.
+     */
+    public BarSeries getBars(long intervalMillis) {
+        return ticks.getTier(intervalMillis);
+    }
+
+    /**
+     * Ticks recorded in [fromMillis, toMillis), read in place from the
+     * history store.
+     */
+    public PriceHistoryStore.Window getPriceWindow(long fromMillis, long toMillis) {
+        if (historyStore == null) {
+            throw new IllegalStateException("No price history store attached for " + symbol);
+        }
+        return historyStore.window(fromMillis, toMillis);
     }
 
     public int getVolume() {
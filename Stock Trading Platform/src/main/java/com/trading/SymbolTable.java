@@ -0,0 +1,72 @@
+package com.trading;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide dense numbering of stock symbols.
+ *
+ * Each symbol gets a small positive ID the first time it is seen; IDs are
+ * never reused or reassigned, so per-account structures can key on an int
+ * instead of a string. IDs are not stable across runs and are never
+ * persisted.
+ */
+public final class SymbolTable {
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] symbols = new String[64];
+    private static int nextId = 1;
+
+    private SymbolTable() {
+    }
+
+    /**
+     * ID of a symbol (case-insensitive), assigning one if it is new. Only
+     * the first sighting of a symbol takes the lock.
+     */
+    public static int idOf(String symbol) {
+        int id = find(symbol);
+        return id != 0 ? id : assign(symbol.toUpperCase());
+    }
+
+    private static synchronized int assign(String symbol) {
+        Integer existing = IDS.get(symbol);
+        if (existing != null) {
+            return existing;
+        }
+        int id = nextId++;
+        if (id == symbols.length) {
+            symbols = Arrays.copyOf(symbols, id * 2);
+        }
+        // Publish the name before the ID so a reader holding the ID finds it
+        symbols[id] = symbol;
+        IDS.put(symbol, id);
+        return id;
+    }
+
+    /**
+     * ID of a symbol that has already been seen, or 0 if it has not.
+     * Unlike {@link #idOf} this never grows the table.
+     */
+    public static int find(String symbol) {
+        Integer id = IDS.get(symbol);
+        if (id == null) {
+            String upper = symbol.toUpperCase();
+            if (upper != symbol) {
+                id = IDS.get(upper);
+            }
+        }
+        return id != null ? id : 0;
+    }
+
+    /**
+     * Symbol with the given ID, in upper case.
+     */
+    public static String symbolOf(int id) {
+        String[] current = symbols;
+        if (id <= 0 || id >= current.length || current[id] == null) {
+            throw new IllegalArgumentException("Unknown symbol ID " + id);
+        }
+        return current[id];
+    }
+}
@@ -0,0 +1,208 @@
+package com.trading;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded in-memory price history of a stock.
+ *
+ * The most recent raw ticks are kept in a primitive ring buffer; every tick
+ * is also folded into a set of coarser OHLC tiers (by default 1 second,
+ * 1 minute and 1 hour bars). Once a tick ages out of the raw ring it is
+ * still represented by the tiers, so memory per symbol is fixed no matter
+ * how long the process runs while older prices stay queryable at a coarser
+ * resolution.
+ */
+public class TickHistory {
+    /** Raw ticks kept per symbol; override with -Dtrading.tickCapacity. */
+    public static final int DEFAULT_TICK_CAPACITY = Integer.getInteger("trading.tickCapacity", 4096);
+    /** Tier layout as interval:bars pairs; override with -Dtrading.priceTiers. */
+    public static final String DEFAULT_TIERS = System.getProperty("trading.priceTiers", "1s:3600,1m:1440,1h:720");
+
+    private final int capacity;
+    private final long[] timestamps;
+    private final double[] prices;
+    private long count;
+    private final BarSeries[] tiers;
+
+    /**
+     * Create a history with the default raw capacity and tiers.
+     */
+    public TickHistory() {
+        this(DEFAULT_TICK_CAPACITY, parseTiers(DEFAULT_TIERS));
+    }
+
+    /**
+     * Create a history.
+     *
+     * @param capacity Number of raw ticks retained
+     * @param tiers Bar series to roll ticks into, finest interval first
+     */
+    public TickHistory(int capacity, List<BarSeries> tiers) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Tick capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.prices = new double[capacity];
+        this.tiers = tiers.toArray(new BarSeries[0]);
+        for (int i = 1; i < this.tiers.length; i++) {
+            if (this.tiers[i].getIntervalMillis() <= this.tiers[i - 1].getIntervalMillis()) {
+                throw new IllegalArgumentException("Price tiers must be ordered from finest to coarsest");
+            }
+        }
+    }
+
+    /**
+     * Parse a tier layout such as "1s:3600,1m:1440,1h:720". Intervals take
+     * an ms, s, m, h or d suffix.
+     */
+    public static List<BarSeries> parseTiers(String spec) {
+        List<BarSeries> tiers = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) {
+                continue;
+            }
+            int colon = part.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Invalid price tier: " + part);
+            }
+            tiers.add(new BarSeries(parseInterval(part.substring(0, colon).trim()),
+                    Integer.parseInt(part.substring(colon + 1).trim())));
+        }
+        return tiers;
+    }
+
+    private static long parseInterval(String interval) {
+        int split = 0;
+        while (split < interval.length() && Character.isDigit(interval.charAt(split))) {
+            split++;
+        }
+        if (split == 0) {
+            throw new IllegalArgumentException("Invalid tier interval: " + interval);
+        }
+        long amount = Long.parseLong(interval.substring(0, split));
+        String unit = interval.substring(split);
+        if ("ms".equals(unit)) {
+            return amount;
+        } else if ("s".equals(unit)) {
+            return amount * 1000L;
+        } else if ("m".equals(unit)) {
+            return amount * 60_000L;
+        } else if ("h".equals(unit)) {
+            return amount * 3_600_000L;
+        } else if ("d".equals(unit)) {
+            return amount * 86_400_000L;
+        }
+        throw new IllegalArgumentException("Invalid tier interval: " + interval);
+    }
+
+    /**
+     * Record a tick in the raw ring and every tier.
+     */
+    public void record(long timestamp, double price) {
+        int slot = (int) (count % capacity);
+        timestamps[slot] = timestamp;
+        prices[slot] = price;
+        count++;
+        for (BarSeries tier : tiers) {
+            tier.update(timestamp, price);
+        }
+    }
+
+    /**
+     * Record an executed trade in every tier. Trades are not price ticks, so
+     * the raw ring is left alone.
+     */
+    public void recordTrade(long timestamp, double price, long quantity) {
+        for (BarSeries tier : tiers) {
+            tier.update(timestamp, price, quantity);
+        }
+    }
+
+    /**
+     * Number of raw ticks currently retained.
+     */
+    public int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Tick " + index + " of " + size());
+        }
+        return (int) ((count - size() + index) % capacity);
+    }
+
+    /**
+     * Timestamp of a retained raw tick; index 0 is the oldest.
+     */
+    public long timestampAt(int index) {
+        return timestamps[slot(index)];
+    }
+
+    public double priceAt(int index) {
+        return prices[slot(index)];
+    }
+
+    public List<BarSeries> getTiers() {
+        return List.of(tiers);
+    }
+
+    /**
+     * Bars of the longest configured interval, or null if there are no tiers.
+     */
+    public BarSeries getCoarsestTier() {
+        return tiers.length > 0 ? tiers[tiers.length - 1] : null;
+    }
+
+    /**
+     * Bars of the given interval.
+     */
+    public BarSeries getTier(long intervalMillis) {
+        for (BarSeries tier : tiers) {
+            if (tier.getIntervalMillis() == intervalMillis) {
+                return tier;
+            }
+        }
+        throw new IllegalArgumentException("No " + intervalMillis + "ms price tier");
+    }
+
+    /**
+     * Last known price at the given time, read from the raw ticks if they
+     * reach back that far and otherwise from the finest tier that does.
+     *
+     * @return The price, or NaN if nothing that old is retained
+     */
+    public double priceAsOf(long timestamp) {
+        int size = size();
+        if (size > 0 && timestampAt(0) <= timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestampAt(mid) <= timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return priceAt(low - 1);
+        }
+        for (BarSeries tier : tiers) {
+            if (tier.getEarliestStart() <= timestamp) {
+                int index = tier.indexAtOrBefore(timestamp);
+                if (tier.startAt(index) != timestamp - Math.floorMod(timestamp, tier.getIntervalMillis())) {
+                    return tier.closeAt(index);
+                }
+                // Every price in the bar covering the timestamp may come after
+                // it, so fall back to the close of the bar before
+                if (index > 0) {
+                    return tier.closeAt(index - 1);
+                }
+            }
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,480 @@
+package com.trading;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays recorded price ticks through a market and trading system for
+ * backtesting.
+ *
+ * Ticks are streamed from memory-mapped files, either CSV lines of
+ * timestamp,symbol,price (epoch millis) or the per-symbol column files
+ * written by {@link PriceHistoryStore}, merged in time order. For each tick
+ * the market's {@link SimulatedClock} is moved to the tick's time, the
+ * stock's price is set and the strategy is called, so trades it places are
+ * timestamped in simulated time. Their IDs are drawn from the simulated
+ * clock, counted from its time when the replayer is created, so the same
+ * backtest issues the same transaction IDs on every run. The market
+ * snapshot is republished once per {@link #setSnapshotInterval snapshot
+ * interval} of simulated time rather than on every tick.
+ *
+ * A replayer drives one backtest on the calling thread. Run independent
+ * backtests, each with its own market, trading system and clock, side by
+ * side with {@link #runParallel}.
+ */
+public class TickReplayer {
+    private static final long WINDOW_BYTES = 1L << 30;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Market market;
+    private final TradingSystem tradingSystem;
+    private final SimulatedClock clock;
+    private final Map<String, Stock> stocks = new IdentityHashMap<>();
+    private long snapshotIntervalMillis = 1000;
+
+    /**
+     * Callback for each tick read from a file.
+     */
+    public interface TickVisitor {
+        void visit(long timestampMillis, String symbol, double price);
+    }
+
+    /**
+     * Trading logic under test, called after each tick is applied.
+     */
+    public interface Strategy {
+        void onTick(Stock stock, long timestampMillis, TradingSystem trading);
+    }
+
+    /**
+     * Outcome of one replay.
+     */
+    public static class ReplayResult {
+        private final long ticks;
+        private final long elapsedNanos;
+
+        public ReplayResult(long ticks, long elapsedNanos) {
+            this.ticks = ticks;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getTicksPerSecond() {
+            return elapsedNanos > 0 ? ticks * 1e9 / elapsedNanos : 0;
+        }
+    }
+
+    /**
+     * @param market Market created with the given clock
+     * @param tradingSystem Trading system over that market
+     * @param clock The market's clock, set to the start of the backtest
+     */
+    public TickReplayer(Market market, TradingSystem tradingSystem, SimulatedClock clock) {
+        if (market.getClock() != clock) {
+            throw new IllegalArgumentException("Market must use the replay clock");
+        }
+        this.market = market;
+        this.tradingSystem = tradingSystem;
+        this.clock = clock;
+        tradingSystem.setTransactionIds(new TransactionIdGenerator(0, clock, clock.millis()));
+    }
+
+    /**
+     * Simulated time between republished market snapshots.
+     */
+    public void setSnapshotInterval(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive");
+        }
+        this.snapshotIntervalMillis = millis;
+    }
+
+    /**
+     * Replay a CSV tick file.
+     *
+     * @param strategy Strategy to run, or null to only move prices
+     */
+    public ReplayResult replayCsv(Path file, Strategy strategy) throws IOException {
+        Driver driver = new Driver(strategy);
+        long start = System.nanoTime();
+        readCsv(file, driver);
+        return driver.finish(start);
+    }
+
+    /**
+     * Replay a directory of price history column files.
+     *
+     * @param strategy Strategy to run, or null to only move prices
+     */
+    public ReplayResult replayColumns(Path dir, Strategy strategy) throws IOException {
+        Driver driver = new Driver(strategy);
+        long start = System.nanoTime();
+        readColumns(dir, driver);
+        return driver.finish(start);
+    }
+
+    /**
+     * Applies ticks to the market.
+     */
+    private final class Driver implements TickVisitor {
+        private final Strategy strategy;
+        private long ticks;
+        private long nextSnapshot = Long.MIN_VALUE;
+
+        Driver(Strategy strategy) {
+            this.strategy = strategy;
+        }
+
+        @Override
+        public void visit(long timestampMillis, String symbol, double price) {
+            clock.setMillis(timestampMillis);
+            Stock stock = stocks.get(symbol);
+            if (stock == null) {
+                stock = market.hasStock(symbol) ? market.getStock(symbol) : market.addStock(symbol, symbol, price);
+                stocks.put(symbol, stock);
+            }
+            stock.applyPrice(price, timestampMillis);
+            if (strategy != null) {
+                strategy.onTick(stock, timestampMillis, tradingSystem);
+            }
+            if (timestampMillis >= nextSnapshot) {
+                market.refreshSnapshot();
+                nextSnapshot = timestampMillis + snapshotIntervalMillis;
+            }
+            ticks++;
+        }
+
+        ReplayResult finish(long start) {
+            market.refreshSnapshot();
+            return new ReplayResult(ticks, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stream the ticks of a CSV file of timestamp,symbol,price lines. Lines
+     * that do not start with a digit, such as a header, are skipped.
+     */
+    public static void readCsv(Path file, TickVisitor visitor) throws IOException {
+        SymbolCache symbols = new SymbolCache();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(WINDOW_BYTES, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int consumed = parseLines(window, (int) length, last, symbols, visitor);
+                if (consumed == 0) {
+                    throw new IOException("Line too long in " + file);
+                }
+                position += consumed;
+            }
+        }
+    }
+
+    /**
+     * Parse whole lines from the start of a window.
+     *
+     * @return Bytes consumed; a trailing partial line is left for the next window
+     */
+    private static int parseLines(ByteBuffer data, int limit, boolean last, SymbolCache symbols,
+                                  TickVisitor visitor) throws IOException {
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int end = lineStart;
+            while (end < limit && data.get(end) != '\n') {
+                end++;
+            }
+            if (end == limit && !last) {
+                break;
+            }
+            int lineEnd = end > lineStart && data.get(end - 1) == '\r' ? end - 1 : end;
+            parseLine(data, lineStart, lineEnd, symbols, visitor);
+            lineStart = end + 1;
+        }
+        return Math.min(lineStart, limit);
+    }
+
+    private static void parseLine(ByteBuffer data, int start, int end, SymbolCache symbols,
+                                  TickVisitor visitor) throws IOException {
+        if (start == end || data.get(start) < '0' || data.get(start) > '9') {
+            return;
+        }
+        int i = start;
+        long timestamp = 0;
+        byte b;
+        while (i < end && (b = data.get(i)) != ',') {
+            timestamp = timestamp * 10 + (b - '0');
+            i++;
+        }
+        int symbolStart = ++i;
+        while (i < end && data.get(i) != ',') {
+            i++;
+        }
+        if (i >= end) {
+            throw new IOException("Malformed tick line: " + text(data, start, end));
+        }
+        String symbol = symbols.lookup(data, symbolStart, i);
+        visitor.visit(timestamp, symbol, parsePrice(data, i + 1, end));
+    }
+
+    /**
+     * Parse a plain decimal without allocating. Exact when the digits fit
+     * in 53 bits; anything else goes through Double.parseDouble.
+     */
+    private static double parsePrice(ByteBuffer data, int start, int end) {
+        int i = start;
+        boolean negative = i < end && data.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = data.get(i);
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9' && mantissa < (1L << 53) / 10) {
+                mantissa = mantissa * 10 + (b - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                return Double.parseDouble(text(data, start, end).trim());
+            }
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static String text(ByteBuffer data, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Stream the ticks of every SYMBOL.ts/SYMBOL.px pair in a directory,
+     * merged in time order.
+     */
+    public static void readColumns(Path dir, TickVisitor visitor) throws IOException {
+        List<ColumnCursor> cursors = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.ts")) {
+            for (Path timestamps : stream) {
+                String name = timestamps.getFileName().toString();
+                String symbol = name.substring(0, name.length() - 3);
+                ColumnCursor cursor = new ColumnCursor(symbol, timestamps, dir.resolve(symbol + ".px"));
+                if (cursor.hasNext()) {
+                    cursors.add(cursor);
+                }
+            }
+        }
+        // Binary heap of cursors ordered by their next timestamp
+        ColumnCursor[] heap = cursors.toArray(new ColumnCursor[0]);
+        int size = heap.length;
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, i, size);
+        }
+        while (size > 0) {
+            ColumnCursor top = heap[0];
+            visitor.visit(top.timestamp, top.symbol, top.price);
+            top.advance();
+            if (!top.hasNext()) {
+                heap[0] = heap[--size];
+            }
+            siftDown(heap, 0, size);
+        }
+    }
+
+    private static void siftDown(ColumnCursor[] heap, int i, int size) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && heap[left].timestamp < heap[smallest].timestamp) {
+                smallest = left;
+            }
+            if (right < size && heap[right].timestamp < heap[smallest].timestamp) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            ColumnCursor swap = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = swap;
+            i = smallest;
+        }
+    }
+
+    /**
+     * Read-only walk over one symbol's column files. The files are mapped
+     * whole; unused slots at the end hold a zero timestamp.
+     */
+    private static final class ColumnCursor {
+        final String symbol;
+        private final MappedByteBuffer[] timestamps;
+        private final MappedByteBuffer[] prices;
+        private final long count;
+        private long index;
+        long timestamp;
+        double price;
+
+        ColumnCursor(String symbol, Path timestampFile, Path priceFile) throws IOException {
+            this.symbol = symbol.toUpperCase();
+            this.timestamps = mapAll(timestampFile);
+            this.prices = mapAll(priceFile);
+            long entries = 0;
+            for (MappedByteBuffer buffer : timestamps) {
+                entries += buffer.capacity() / Long.BYTES;
+            }
+            this.count = entries;
+            load();
+        }
+
+        private static MappedByteBuffer[] mapAll(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size() / Long.BYTES * Long.BYTES;
+                int windows = (int) ((size + WINDOW_BYTES - 1) / WINDOW_BYTES);
+                MappedByteBuffer[] buffers = new MappedByteBuffer[windows];
+                for (int i = 0; i < windows; i++) {
+                    long offset = i * WINDOW_BYTES;
+                    buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                            Math.min(WINDOW_BYTES, size - offset));
+                }
+                return buffers;
+            }
+        }
+
+        boolean hasNext() {
+            return index < count && timestamp != 0;
+        }
+
+        void advance() {
+            index++;
+            load();
+        }
+
+        private void load() {
+            if (index >= count) {
+                timestamp = 0;
+                return;
+            }
+            long byteOffset = index * Long.BYTES;
+            int window = (int) (byteOffset / WINDOW_BYTES);
+            int offset = (int) (byteOffset % WINDOW_BYTES);
+            timestamp = timestamps[window].getLong(offset);
+            price = prices[window].getDouble(offset);
+        }
+    }
+
+    /**
+     * Maps symbol bytes to one shared String per symbol. Symbols of up to
+     * eight ASCII bytes are packed into a long and found without
+     * allocating.
+     */
+    private static final class SymbolCache {
+        private long[] keys = new long[64];
+        private String[] values = new String[64];
+        private int size;
+        private final Map<String, String> longer = new HashMap<>();
+
+        String lookup(ByteBuffer data, int start, int end) {
+            if (end - start > 8) {
+                String symbol = text(data, start, end).toUpperCase();
+                return longer.computeIfAbsent(symbol, key -> key);
+            }
+            // A leading 1 bit keeps an empty slot (key 0) distinct from any symbol
+            long key = 1;
+            for (int i = start; i < end; i++) {
+                key = (key << 8) | (data.get(i) & 0xFF);
+            }
+            int mask = keys.length - 1;
+            int slot = (int) (key ^ (key >>> 29)) * 0x9E3779B9 >>> 8 & mask;
+            for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            String symbol = text(data, start, end).toUpperCase();
+            keys[slot] = key;
+            values[slot] = symbol;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return symbol;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    long key = oldKeys[i];
+                    int slot = (int) (key ^ (key >>> 29)) * 0x9E3779B9 >>> 8 & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = key;
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Run independent backtests side by side, one per core at most.
+     *
+     * @return Each backtest's result, in the order given
+     */
+    public static <T> List<T> runParallel(List<? extends Callable<T>> backtests)
+            throws InterruptedException, ExecutionException {
+        int threads = Math.max(1, Math.min(backtests.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (Callable<T> backtest : backtests) {
+                futures.add(executor.submit(backtest));
+            }
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,559 @@
+package com.trading;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of account activity.
+ *
+ * Records are written to numbered segment files as
+ * [length][sequence][type][payload][crc32]. Appends only reach the OS page
+ * cache; {@link #commit()} forces them to disk, so one fsync covers every
+ * record appended since the previous commit (group commit). On open, a torn
+ * or corrupt tail left by a crash is truncated away.
+ */
+public class TradeJournal implements Closeable {
+    public static final long DEFAULT_SEGMENT_BYTES = 16L * 1024 * 1024;
+
+    static final byte REGISTER = 1;
+    static final byte TRADE = 2;
+    static final byte PERFORMANCE = 3;
+    static final byte NUMBERED_TRADE = 4; // trade with a generated numeric ID
+    static final byte FILL = 5; // both sides of an order book fill
+    static final byte BATCH = 6; // trades of one batch, written together
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 4 + 8 + 1;
+    private static final int CRC_BYTES = 4;
+    private static final int TRADE_FIELD_BYTES = 1 + 4 + 8 + 12; // type, quantity, price, timestamp
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final Object syncLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+    private FileChannel active;
+    private long activeSize;
+    private long lastSequence;
+    private volatile long syncedSequence;
+
+    /**
+     * Callback used to replay journal records.
+     */
+    public interface Visitor {
+        void onRegister(String userId, String name, double initialBalance);
+
+        void onTrade(Transaction transaction);
+
+        void onPerformance(String userId, long timestampMillis, double value);
+    }
+
+    /**
+     * Open (or create) a journal in the given directory.
+     */
+    public TradeJournal(Path dir, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        openActiveSegment();
+    }
+
+    public TradeJournal(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    private void openActiveSegment() throws IOException {
+        List<Long> segments = listSegments(dir);
+        if (segments.isEmpty()) {
+            lastSequence = 0;
+            startSegment(1);
+        } else {
+            long firstSequence = segments.get(segments.size() - 1);
+            Path path = segmentPath(dir, firstSequence);
+            ByteBuffer data = readFully(path);
+            long last = scan(data, 0, 0, null, null);
+            lastSequence = last > 0 ? last : firstSequence - 1;
+            active = FileChannel.open(path, StandardOpenOption.WRITE);
+            active.truncate(data.position());
+            active.position(data.position());
+            activeSize = data.position();
+        }
+        syncedSequence = lastSequence;
+    }
+
+    private void startSegment(long firstSequence) throws IOException {
+        active = FileChannel.open(segmentPath(dir, firstSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        activeSize = 0;
+    }
+
+    /**
+     * Append a user registration.
+     *
+     * @return Sequence number of the record
+     */
+    public synchronized long appendRegistration(String userId, String name, double initialBalance)
+            throws IOException {
+        beginRecord();
+        putString(userId);
+        putString(name);
+        ensureCapacity(8);
+        buffer.putDouble(initialBalance);
+        return finishRecord(REGISTER);
+    }
+
+    /**
+     * Append an executed trade.
+     *
+     * @return Sequence number of the record
+     */
+    public synchronized long appendTrade(Transaction transaction) throws IOException {
+        beginRecord();
+        boolean numbered = transaction.getId() != 0;
+        if (numbered) {
+            ensureCapacity(8);
+            buffer.putLong(transaction.getId());
+        } else {
+            putString(transaction.getTransactionId());
+        }
+        putTrade(transaction);
+        return finishRecord(numbered ? NUMBERED_TRADE : TRADE);
+    }
+
+    /**
+     * Append several trades as one record, so replay sees all of them or
+     * none. Every transaction must carry a generated ID.
+     *
+     * @return Sequence number of the record
+     */
+    public synchronized long appendTrades(List<Transaction> transactions) throws IOException {
+        beginRecord();
+        ensureCapacity(4);
+        buffer.putInt(transactions.size());
+        for (Transaction transaction : transactions) {
+            if (transaction.getId() == 0) {
+                throw new IllegalArgumentException("Batched transactions need generated IDs");
+            }
+            ensureCapacity(8);
+            buffer.putLong(transaction.getId());
+            putTrade(transaction);
+        }
+        return finishRecord(BATCH);
+    }
+
+    /**
+     * Append both sides of an order book fill as one record, so replay sees
+     * either the whole fill or none of it. Both transactions must carry
+     * generated IDs.
+     *
+     * @return Sequence number of the record
+     */
+    public synchronized long appendFill(Transaction purchase, Transaction sale) throws IOException {
+        if (purchase.getId() == 0 || sale.getId() == 0) {
+            throw new IllegalArgumentException("Fill transactions need generated IDs");
+        }
+        beginRecord();
+        ensureCapacity(16);
+        buffer.putLong(purchase.getId());
+        buffer.putLong(sale.getId());
+        putString(purchase.getStockSymbol());
+        putString(purchase.getUserId());
+        putString(sale.getUserId());
+        ensureCapacity(4 + 8 + 12);
+        buffer.putInt(purchase.getQuantity());
+        buffer.putDouble(purchase.getPricePerShare());
+        putTimestamp(purchase.getEpochNanos());
+        return finishRecord(FILL);
+    }
+
+    /**
+     * Append a portfolio performance snapshot.
+     *
+     * @return Sequence number of the record
+     */
+    public synchronized long appendPerformance(String userId, Portfolio.PerformancePoint point)
+            throws IOException {
+        beginRecord();
+        putString(userId);
+        ensureCapacity(12 + 8);
+        putTimestamp(point.getTimestampMillis() * 1_000_000L);
+        buffer.putDouble(point.getValue());
+        return finishRecord(PERFORMANCE);
+    }
+
+    /**
+     * Force every record appended so far to disk. Concurrent callers share
+     * a single fsync.
+     */
+    public void commit() throws IOException {
+        long target;
+        FileChannel channel;
+        synchronized (this) {
+            target = lastSequence;
+            channel = active;
+        }
+        if (syncedSequence >= target) {
+            return;
+        }
+        synchronized (syncLock) {
+            // A segment roll (or another committer) may have covered us already
+            if (syncedSequence >= target) {
+                return;
+            }
+            channel.force(false);
+            syncedSequence = target;
+        }
+    }
+
+    /**
+     * Replay every record with a sequence number greater than afterSequence.
+     *
+     * @return Sequence number of the last valid record in the journal
+     */
+    public long replay(long afterSequence, Visitor visitor) throws IOException {
+        return replay(afterSequence, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Replay the records with sequence numbers in (afterSequence, throughSequence].
+     *
+     * @return Sequence number of the last valid record scanned
+     */
+    public long replay(long afterSequence, long throughSequence, Visitor visitor) throws IOException {
+        return replay(afterSequence, throughSequence, null, visitor);
+    }
+
+    /**
+     * Replay the records with sequence numbers in (afterSequence,
+     * throughSequence] that concern one user, or every record if userId is
+     * null. Records of other users are skipped without being decoded, and
+     * of a fill only the user's side is delivered.
+     *
+     * @return Sequence number of the last valid record scanned
+     */
+    public long replay(long afterSequence, long throughSequence, String userId, Visitor visitor)
+            throws IOException {
+        List<Long> segments;
+        synchronized (this) {
+            segments = listSegments(dir);
+        }
+        return replay(dir, segments, afterSequence, throughSequence, userId, visitor);
+    }
+
+    /**
+     * Replay a journal directory that is no longer written to, such as an
+     * archive, without opening it for writing: nothing is truncated or
+     * forced to disk. Arguments are as for the instance method.
+     *
+     * @return Sequence number of the last valid record scanned
+     */
+    public static long replayDirectory(Path dir, long afterSequence, long throughSequence, String userId,
+                                       Visitor visitor) throws IOException {
+        return replay(dir, listSegments(dir), afterSequence, throughSequence, userId, visitor);
+    }
+
+    private static long replay(Path dir, List<Long> segments, long afterSequence, long throughSequence,
+                               String userId, Visitor visitor) throws IOException {
+        byte[] user = userId != null ? userId.getBytes(StandardCharsets.UTF_8) : null;
+        long last = afterSequence;
+        for (int i = 0; i < segments.size(); i++) {
+            if (i + 1 < segments.size() && segments.get(i + 1) - 1 <= afterSequence) {
+                continue; // Segment lies entirely before the requested range
+            }
+            if (segments.get(i) > throughSequence) {
+                break;
+            }
+            last = Math.max(last, scan(readFully(segmentPath(dir, segments.get(i))),
+                    afterSequence, throughSequence, user, visitor));
+        }
+        return last;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    @Override
+    public void close() throws IOException {
+        commit();
+        synchronized (this) {
+            active.close();
+        }
+    }
+
+    // Record encoding
+
+    private void beginRecord() {
+        buffer.clear();
+        buffer.position(HEADER_BYTES);
+    }
+
+    private long finishRecord(byte type) throws IOException {
+        long sequence = lastSequence + 1;
+        ensureCapacity(CRC_BYTES);
+        int end = buffer.position();
+        buffer.putInt(0, end - HEADER_BYTES);
+        buffer.putLong(4, sequence);
+        buffer.put(12, type);
+        crc.reset();
+        crc.update(buffer.array(), 4, end - 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        if (activeSize >= segmentBytes) {
+            rollSegment(sequence);
+        }
+        long start = activeSize;
+        try {
+            while (buffer.hasRemaining()) {
+                activeSize += active.write(buffer);
+            }
+        } catch (IOException e) {
+            // Cut off the partial record so a later append is not hidden behind it
+            try {
+                active.truncate(start);
+                active.position(start);
+                activeSize = start;
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        lastSequence = sequence;
+        return sequence;
+    }
+
+    private void rollSegment(long nextSequence) throws IOException {
+        synchronized (syncLock) {
+            active.force(false);
+            active.close();
+            syncedSequence = lastSequence;
+        }
+        startSegment(nextSequence);
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    private void putTrade(Transaction transaction) {
+        putString(transaction.getStockSymbol());
+        putString(transaction.getUserId());
+        ensureCapacity(1 + 4 + 8 + 12);
+        buffer.put((byte) transaction.getTransactionType().ordinal());
+        buffer.putInt(transaction.getQuantity());
+        buffer.putDouble(transaction.getPricePerShare());
+        putTimestamp(transaction.getEpochNanos());
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putTimestamp(long epochNanos) {
+        buffer.putLong(Math.floorDiv(epochNanos, 1_000_000_000L));
+        buffer.putInt((int) Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+
+    // Record decoding
+
+    /**
+     * Walk the records in data, delivering those in (afterSequence,
+     * throughSequence] to the visitor, only for one user if user is not
+     * null. Stops at the first torn or corrupt record and leaves the buffer
+     * positioned at the end of the last valid one.
+     *
+     * @param user UTF-8 bytes of the user ID to deliver records of, or null for all
+     * @return Sequence number of the last valid record, or 0 if there is none
+     */
+    private static long scan(ByteBuffer data, long afterSequence, long throughSequence, byte[] user,
+                             Visitor visitor) {
+        CRC32 checksum = new CRC32();
+        long last = 0;
+        while (data.remaining() >= HEADER_BYTES + CRC_BYTES) {
+            int start = data.position();
+            int length = data.getInt(start);
+            if (length < 0 || length > data.remaining() - HEADER_BYTES - CRC_BYTES) {
+                break;
+            }
+            int end = start + HEADER_BYTES + length;
+            checksum.reset();
+            checksum.update(data.array(), start + 4, end - start - 4);
+            if ((int) checksum.getValue() != data.getInt(end)) {
+                break;
+            }
+            long sequence = data.getLong(start + 4);
+            byte type = data.get(start + 12);
+            if (visitor != null && sequence > afterSequence && sequence <= throughSequence) {
+                ByteBuffer payload = data.duplicate();
+                payload.position(start + HEADER_BYTES).limit(end);
+                dispatch(type, payload, user, visitor);
+            }
+            last = sequence;
+            data.position(end + CRC_BYTES);
+        }
+        return last;
+    }
+
+    private static void dispatch(byte type, ByteBuffer payload, byte[] user, Visitor visitor) {
+        int start = payload.position();
+        switch (type) {
+            case REGISTER:
+                if (isUser(payload, start, user)) {
+                    visitor.onRegister(getString(payload), getString(payload), payload.getDouble());
+                }
+                break;
+            case TRADE:
+            case NUMBERED_TRADE:
+                int symbolOffset = type == NUMBERED_TRADE ? start + 8 : start + 4 + payload.getInt(start);
+                if (!isUser(payload, userOffset(payload, symbolOffset), user)) {
+                    break;
+                }
+                long id = type == NUMBERED_TRADE ? payload.getLong() : 0;
+                String transactionId = type == TRADE ? getString(payload) : null;
+                visitor.onTrade(getTrade(payload, id, transactionId));
+                break;
+            case BATCH:
+                int trades = payload.getInt();
+                for (int i = 0; i < trades; i++) {
+                    int tradeUser = userOffset(payload, payload.position() + 8);
+                    if (isUser(payload, tradeUser, user)) {
+                        visitor.onTrade(getTrade(payload, payload.getLong(), null));
+                    } else {
+                        payload.position(tradeUser + 4 + payload.getInt(tradeUser) + TRADE_FIELD_BYTES);
+                    }
+                }
+                break;
+            case FILL:
+                int buyerOffset = userOffset(payload, start + 16);
+                int sellerOffset = buyerOffset + 4 + payload.getInt(buyerOffset);
+                boolean buyer = isUser(payload, buyerOffset, user);
+                boolean seller = isUser(payload, sellerOffset, user);
+                if (!buyer && !seller) {
+                    break;
+                }
+                long purchaseId = payload.getLong();
+                long saleId = payload.getLong();
+                String fillSymbol = getString(payload);
+                String buyerId = getString(payload);
+                String sellerId = getString(payload);
+                int fillQuantity = payload.getInt();
+                double fillPrice = payload.getDouble();
+                long executed = getEpochNanos(payload);
+                if (buyer) {
+                    visitor.onTrade(new Transaction(TransactionType.BUY, fillSymbol, fillQuantity, fillPrice,
+                            buyerId, purchaseId, executed));
+                }
+                if (seller) {
+                    visitor.onTrade(new Transaction(TransactionType.SELL, fillSymbol, fillQuantity, fillPrice,
+                            sellerId, saleId, executed));
+                }
+                break;
+            case PERFORMANCE:
+                if (isUser(payload, start, user)) {
+                    visitor.onPerformance(getString(payload), Math.floorDiv(getEpochNanos(payload), 1_000_000L),
+                            payload.getDouble());
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static Transaction getTrade(ByteBuffer payload, long id, String transactionId) {
+        String symbol = getString(payload);
+        String userId = getString(payload);
+        TransactionType transactionType = TransactionType.values()[payload.get()];
+        int quantity = payload.getInt();
+        double price = payload.getDouble();
+        long timestamp = getEpochNanos(payload);
+        return id != 0
+                ? new Transaction(transactionType, symbol, quantity, price, userId, id, timestamp)
+                : new Transaction(transactionType, symbol, quantity, price, userId, transactionId, timestamp);
+    }
+
+    /**
+     * Offset of the user ID that follows the symbol string at symbolOffset
+     * in a trade.
+     */
+    private static int userOffset(ByteBuffer payload, int symbolOffset) {
+        return symbolOffset + 4 + payload.getInt(symbolOffset);
+    }
+
+    /**
+     * Whether the string encoded at offset is the given user ID, compared
+     * in place; always true when no user is given.
+     */
+    private static boolean isUser(ByteBuffer payload, int offset, byte[] user) {
+        if (user == null) {
+            return true;
+        }
+        int length = payload.getInt(offset);
+        return length == user.length
+                && Arrays.equals(payload.array(), offset + 4, offset + 4 + length, user, 0, length);
+    }
+
+    private static String getString(ByteBuffer payload) {
+        int length = payload.getInt();
+        String value = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    private static long getEpochNanos(ByteBuffer payload) {
+        long seconds = payload.getLong();
+        int nanos = payload.getInt();
+        return seconds * 1_000_000_000L + nanos;
+    }
+
+    // Segment files
+
+    private static List<Long> listSegments(Path dir) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static Path segmentPath(Path dir, long firstSequence) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private static ByteBuffer readFully(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // Keep reading until the whole segment is buffered
+            }
+            data.flip();
+            return data;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.trading;
 
+import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.Scanner;
 
@@ -7,9 +8,20 @@ import java.util.Scanner;
  * Main application class for the stock trading platform.
  */
 public class TradingPlatform {
+    /** Seconds between background snapshots; override with -Dtrading.snapshotInterval. */
+    private static final long SNAPSHOT_INTERVAL_SECONDS = Long.getLong("trading.snapshotInterval", 60L);
+    /** Revalue every account on each price update; enable with -Dtrading.serverMode=true. */
+    private static final boolean SERVER_MODE = Boolean.getBoolean("trading.serverMode");
+    /** Price model name (uniform, gbm, jump, meanreversion); set with -Dtrading.priceModel. */
+    private static final String PRICE_MODEL = System.getProperty("trading.priceModel");
+    /** Background price ticks per second, 0 for manual updates only; set with -Dtrading.tickRate. */
+    private static final int TICK_RATE = Integer.getInteger("trading.tickRate", 0);
+
     private Market market;
+    private MarketTicker ticker;
     private TradingSystem tradingSystem;
     private DataPersistence persistence;
+    private volatile TradingSystem.MarkResult lastMark;
     private String currentUserId;
     private Scanner scanner;
 
@@ -18,45 +30,79 @@ public class TradingPlatform {
      */
     public TradingPlatform() {
         this.market = new Market();
+        if (PRICE_MODEL != null) {
+            market.setPriceModel(PriceModels.named(PRICE_MODEL));
+        }
+        this.ticker = new MarketTicker(market);
         this.tradingSystem = new TradingSystem(market);
         this.persistence = new DataPersistence();
+        market.attachPriceHistory(persistence.getPriceHistoryDir());
         this.currentUserId = null;
         this.scanner = new Scanner(System.in);
         loadData();
+        if (SERVER_MODE) {
+            ticker.subscribe(snapshot -> lastMark = tradingSystem.markToMarket());
+        }
+        if (TICK_RATE > 0) {
+            ticker.start(TICK_RATE);
+        }
     }
 
     /**
-     * Load saved user and portfolio data.
+     * Load the latest snapshot, replay the journal tail after it and start
+     * background snapshots.
      */
     private void loadData() {
         DataPersistence.DataLoadResult result = persistence.loadAll();
-        if (!result.getUsers().isEmpty() || !result.getPortfolios().isEmpty()) {
-            tradingSystem.setUsers(result.getUsers());
-            tradingSystem.setPortfolios(result.getPortfolios());
+        tradingSystem.setUsers(result.getUsers());
+        tradingSystem.setPortfolios(result.getPortfolios());
+        persistence.replayJournal(result.getSequence(), tradingSystem.journalReplayer());
+        tradingSystem.setJournal(persistence.getJournal());
+        persistence.startSnapshots(SNAPSHOT_INTERVAL_SECONDS, tradingSystem::captureSnapshot);
+        if (!tradingSystem.getUsers().isEmpty()) {
             System.out.println("Loaded saved data from previous session.");
         }
     }
 
     /**
-     * Save current user and portfolio data.
+     * Make journaled changes durable.
+     */
+    private void commitData() {
+        if (persistence.commit()) {
+            System.out.println("Data saved successfully.");
+        } else {
+            System.out.println("Warning: Failed to save data.");
+        }
+    }
+
+    /**
+     * Write a final snapshot of user and portfolio data and close the journal.
      */
     private void saveData() {
-        if (persistence.saveAll(tradingSystem.getUsers(), tradingSystem.getPortfolios())) {
+        if (persistence.saveSnapshot(tradingSystem.captureSnapshot())) {
             System.out.println("Data saved successfully.");
         } else {
             System.out.println("Warning: Failed to save data.");
         }
+        ticker.stop();
+        persistence.close();
+        market.closePriceHistory();
     }
 
     /**
-     * Update all stock prices.
+     * Update all stock prices through the ticker, so its subscribers see
+     * the update as they see a scheduled tick.
      */
     private void updateMarketPrices() {
-        market.updatePrices();
+        ticker.tickNow();
+        TradingSystem.MarkResult mark = lastMark;
+        if (SERVER_MODE && mark != null) {
+            System.out.printf("Marked %d accounts to market ($%.2f) in %.1f ms%n",
+                    mark.getAccounts(), mark.getTotalValue(), mark.getElapsedNanos() / 1e6);
+        }
         // Record performance for current user if logged in
         if (currentUserId != null) {
-            Portfolio portfolio = tradingSystem.getPortfolio(currentUserId);
-            portfolio.recordPerformance(market.getAllStocks());
+            tradingSystem.recordPerformance(currentUserId);
         }
     }
 
@@ -140,7 +186,7 @@ public class TradingPlatform {
         }
 
         Portfolio portfolio = tradingSystem.getPortfolio(currentUserId);
-        var history = portfolio.getPerformanceHistory();
+        PerformanceSeries history = portfolio.getPerformanceSeries();
 
         if (history.isEmpty()) {
             System.out.println("\nNo performance history available yet. Make some trades and update prices!");
@@ -153,10 +199,9 @@ public class TradingPlatform {
         System.out.printf("%-25s %-20s%n", "Timestamp", "Portfolio Value");
         System.out.println("-".repeat(45));
 
-        for (Portfolio.PerformancePoint point : history) {
-            String timestamp = point.getTimestamp().toString().replace("T", " ").substring(0, 19);
-            System.out.printf("%-25s $%-19.2f%n", timestamp, point.getValue());
-        }
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        history.forEach((timestamp, value) -> System.out.printf("%-25s $%-19.2f%n",
+                format.format(PerformanceSeries.toDateTime(timestamp)), value));
 
         System.out.println("=".repeat(80) + "\n");
     }
@@ -202,7 +247,7 @@ public class TradingPlatform {
                             currentUserId, buySymbol, buyQuantity);
                         System.out.println("\n" + buyResult.getMessage());
                         if (buyResult.isSuccess()) {
-                            saveData();
+                            commitData();
                         }
                         break;
 
@@ -212,7 +257,7 @@ public class TradingPlatform {
                             break;
                         }
                         Portfolio portfolio = tradingSystem.getPortfolio(currentUserId);
-                        Map<String, Integer> holdings = portfolio.getHoldings();
+                        Map<String, Integer> holdings = portfolio.getHoldingsView();
 
                         if (holdings.isEmpty()) {
                             System.out.println("\nYou have no stocks to sell.");
@@ -235,13 +280,16 @@ public class TradingPlatform {
                             currentUserId, sellSymbol, sellQuantity);
                         System.out.println("\n" + sellResult.getMessage());
                         if (sellResult.isSuccess()) {
-                            saveData();
+                            commitData();
                         }
                         break;
 
                     case "5":
                         if (currentUserId != null) {
-                            tradingSystem.displayTransactionHistory(currentUserId);
+                            System.out.print("Filter by symbol (Enter for all): ");
+                            String historySymbol = scanner.nextLine().trim();
+                            tradingSystem.displayTransactionHistory(currentUserId,
+                                historySymbol.isEmpty() ? null : historySymbol, TradingSystem.HISTORY_PAGE_SIZE);
                         } else {
                             System.out.println("Please login first.");
                         }
@@ -261,12 +309,12 @@ public class TradingPlatform {
                         System.out.println("Market prices updated!");
                         market.displayMarketData();
                         if (currentUserId != null) {
-                            saveData();
+                            commitData();
                         }
                         break;
 
                     case "8":
-                        saveData();
+                        commitData();
                         currentUserId = null;
                         loginOrRegister();
                         break;
@@ -1,34 +1,92 @@
 package com.trading;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
 
 /**
  * Trading system managing buy/sell operations and user interactions.
+ *
+ * Safe for concurrent use. Each account is guarded by one of a fixed set of
+ * striped locks, so orders for different users run in parallel while each
+ * account's balance and holdings change atomically. Order book fills, which
+ * touch two accounts, take both stripes in index order under the book's
+ * own lock; a snapshot takes every stripe.
  */
 public class TradingSystem {
+    private static final int LOCK_STRIPES = 64;
+    /** Transactions shown by {@link #displayTransactionHistory(String)}. */
+    static final int HISTORY_PAGE_SIZE = 50;
+
     private Market market;
     private Map<String, User> users;
     private Map<String, Portfolio> portfolios;
+    private volatile TradeJournal journal;
+    private volatile TransactionIdGenerator transactionIds = Transaction.IDS;
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+    private final Map<String, Settlement> orderBooks = new ConcurrentHashMap<>();
+    private HolderIndex holders = new HolderIndex();
+    private Portfolio[][] markShards = new Portfolio[LOCK_STRIPES][0]; // portfolios grouped by lock stripe
+    private int markShardsSize;
 
     /**
      * Initialize trading system.
      */
     public TradingSystem(Market market) {
         this.market = market;
-        this.users = new HashMap<>();
-        this.portfolios = new HashMap<>();
+        this.users = new ConcurrentHashMap<>();
+        this.portfolios = new ConcurrentHashMap<>();
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    private int stripe(String userId) {
+        int hash = userId.hashCode();
+        return (hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    /**
+     * Lock guarding the given user's account.
+     */
+    private ReentrantLock lockFor(String userId) {
+        return stripes[stripe(userId)];
     }
 
     /**
      * Register a new user.
      */
     public User registerUser(String userId, String name, double initialBalance) {
-        if (users.containsKey(userId)) {
-            throw new IllegalArgumentException("User " + userId + " already exists");
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            if (users.containsKey(userId)) {
+                throw new IllegalArgumentException("User " + userId + " already exists");
+            }
+            if (journal != null) {
+                try {
+                    journal.appendRegistration(userId, name, initialBalance);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to journal registration of " + userId, e);
+                }
+            }
+            return restoreUser(userId, name, initialBalance);
+        } finally {
+            lock.unlock();
         }
+    }
+
+    private User restoreUser(String userId, String name, double initialBalance) {
         User user = new User(userId, name, initialBalance);
+        // Publish the portfolio first so a visible user always has one
+        Portfolio portfolio = new Portfolio(userId, user.transactionLog());
+        holders.attach(portfolio);
+        portfolios.put(userId, portfolio);
         users.put(userId, user);
-        portfolios.put(userId, new Portfolio(userId));
         return user;
     }
 
@@ -60,40 +118,69 @@ public class TradingSystem {
      * @return TransactionResult with success status, message, and transaction
      */
     public TransactionResult buyStock(String userId, String symbol, int quantity) {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
         try {
-            User user = getUser(userId);
-            Portfolio portfolio = getPortfolio(userId);
+            return executeBuy(userId, symbol, quantity);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (!market.getAllStocks().containsKey(symbol.toUpperCase())) {
-                return new TransactionResult(false, "Stock " + symbol + " not found in market", null);
-            }
+    /**
+     * Execute a sell order.
+     */
+    public TransactionResult sellStock(String userId, String symbol, int quantity) {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            return executeSell(userId, symbol, quantity);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            Stock stock = market.getStock(symbol);
-            double totalCost = stock.getCurrentPrice() * quantity;
+    /**
+     * Buy at the current price. The caller must hold the user's lock.
+     */
+    private TransactionResult executeBuy(String userId, String symbol, int quantity) {
+        return executeMarketOrder(TransactionType.BUY, userId, symbol, quantity);
+    }
+
+    /**
+     * Sell at the current price. The caller must hold the user's lock.
+     */
+    private TransactionResult executeSell(String userId, String symbol, int quantity) {
+        return executeMarketOrder(TransactionType.SELL, userId, symbol, quantity);
+    }
 
-            if (user.getBalance() < totalCost) {
+    private TransactionResult executeMarketOrder(TransactionType type, String userId, String symbol, int quantity) {
+        try {
+            User user = getUser(userId);
+            Portfolio portfolio = getPortfolio(userId);
+
+            Stock stock = market.getSnapshot().getStock(symbol);
+            if (stock == null) {
                 return new TransactionResult(false,
-                    String.format("Insufficient funds. Need $%.2f, have $%.2f", totalCost, user.getBalance()),
-                    null);
+                    describe(OrderStatus.UNKNOWN_STOCK, type, userId, symbol, quantity, 0, 0), null);
             }
 
-            if (quantity <= 0) {
-                return new TransactionResult(false, "Quantity must be positive", null);
+            double price = stock.getCurrentPrice();
+            OrderStatus status = checkMarketOrder(type, user, portfolio, symbol, quantity, price);
+            if (status != OrderStatus.FILLED) {
+                return new TransactionResult(false, describe(status, type, userId, symbol, quantity, price,
+                    available(type, user, portfolio, symbol)), null);
             }
 
             // Create transaction
-            Transaction transaction = new Transaction(
-                TransactionType.BUY, symbol, quantity,
-                stock.getCurrentPrice(), userId
-            );
+            Transaction transaction = new Transaction(type, symbol, quantity, price, userId,
+                    transactionIds, nowNanos());
 
             // Execute transaction
-            user.setBalance(user.getBalance() - totalCost);
-            user.addTransaction(transaction);
-            portfolio.addTransaction(transaction);
+            journalTrade(transaction);
+            applyFill(user, portfolio, stock, transaction);
 
-            return new TransactionResult(true,
-                String.format("Successfully bought %d shares of %s @ $%.2f", quantity, symbol, stock.getCurrentPrice()),
+            return new TransactionResult(true, describe(OrderStatus.FILLED, type, userId, symbol, quantity, price, 0),
                 transaction);
 
         } catch (Exception e) {
@@ -102,49 +189,827 @@ public class TradingSystem {
     }
 
     /**
-     * Execute a sell order.
+     * How {@link #submitBatch} treats a batch in which some orders fail.
      */
-    public TransactionResult sellStock(String userId, String symbol, int quantity) {
+    public enum BatchMode {
+        /** Execute the batch only if every order in it can be filled. */
+        ALL_OR_NOTHING,
+        /** Execute every order that can be filled and skip the rest. */
+        BEST_EFFORT
+    }
+
+    /**
+     * Execute a batch of market orders all-or-nothing.
+     */
+    public BatchResult submitBatch(List<OrderRequest> orders) {
+        return submitBatch(orders, BatchMode.ALL_OR_NOTHING);
+    }
+
+    /**
+     * Validate and execute many market orders in one pass. Each user and
+     * symbol is looked up once, every stock is priced once for the whole
+     * batch, and the accounts involved are locked together, so the batch is
+     * applied atomically. Orders are checked in list order against balances
+     * and holdings as earlier orders in the batch leave them. The batch's
+     * fills are journaled as one record; if that fails, none are applied.
+     */
+    public BatchResult submitBatch(List<OrderRequest> orders, BatchMode mode) {
+        int count = orders.size();
+        BatchResult result = new BatchResult(orders);
+        Map<String, BatchAccount> accounts = new HashMap<>();
+        Map<String, Stock> stocks = new HashMap<>();
+        BatchAccount[] orderAccounts = new BatchAccount[count];
+        Stock[] orderStocks = new Stock[count];
+
+        boolean[] stripesNeeded = new boolean[LOCK_STRIPES];
+        for (int i = 0; i < count; i++) {
+            OrderRequest order = orders.get(i);
+            BatchAccount account = accounts.computeIfAbsent(order.getUserId(), userId -> {
+                User user = users.get(userId);
+                Portfolio portfolio = portfolios.get(userId);
+                return user != null && portfolio != null ? new BatchAccount(user, portfolio) : null;
+            });
+            if (account == null) {
+                result.statuses[i] = OrderStatus.UNKNOWN_USER;
+                continue;
+            }
+            Stock stock = stocks.computeIfAbsent(order.getSymbol().toUpperCase(),
+                    symbol -> market.getSnapshot().getStock(symbol));
+            if (stock == null) {
+                result.statuses[i] = OrderStatus.UNKNOWN_STOCK;
+                continue;
+            }
+            orderAccounts[i] = account;
+            orderStocks[i] = stock;
+            stripesNeeded[stripe(order.getUserId())] = true;
+        }
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            if (stripesNeeded[i]) {
+                stripes[i].lock();
+            }
+        }
+        try {
+            Map<Stock, Double> prices = new HashMap<>();
+            boolean allFilled = true;
+            for (int i = 0; i < count; i++) {
+                if (result.statuses[i] != null) {
+                    allFilled = false;
+                    continue;
+                }
+                OrderRequest order = orders.get(i);
+                double price = prices.computeIfAbsent(orderStocks[i], Stock::getCurrentPrice);
+                result.prices[i] = price;
+                OrderStatus status = orderAccounts[i].check(order, orderStocks[i].getSymbol(), price);
+                if (status != OrderStatus.FILLED) {
+                    result.available[i] = orderAccounts[i].available(order.getType(), orderStocks[i].getSymbol());
+                    allFilled = false;
+                }
+                result.statuses[i] = status;
+            }
+
+            if (!allFilled && mode == BatchMode.ALL_OR_NOTHING) {
+                for (int i = 0; i < count; i++) {
+                    if (result.statuses[i] == OrderStatus.FILLED) {
+                        result.statuses[i] = OrderStatus.BATCH_REJECTED;
+                    }
+                }
+                return result;
+            }
+
+            // Write every fill ahead to the journal in one record, then apply
+            long executed = nowNanos();
+            List<Transaction> fills = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                if (result.statuses[i] == OrderStatus.FILLED) {
+                    OrderRequest order = orders.get(i);
+                    result.transactions[i] = new Transaction(order.getType(), orderStocks[i].getSymbol(),
+                            order.getQuantity(), result.prices[i], order.getUserId(), transactionIds, executed);
+                    fills.add(result.transactions[i]);
+                }
+            }
+            if (journal != null && !fills.isEmpty()) {
+                try {
+                    journal.appendTrades(fills);
+                } catch (IOException e) {
+                    System.err.println("Error journaling batch: " + e.getMessage());
+                    for (int i = 0; i < count; i++) {
+                        if (result.statuses[i] == OrderStatus.FILLED) {
+                            result.statuses[i] = OrderStatus.ERROR;
+                            result.transactions[i] = null;
+                        }
+                    }
+                    return result;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (result.transactions[i] != null) {
+                    applyFill(orderAccounts[i].user, orderAccounts[i].portfolio, orderStocks[i],
+                            result.transactions[i]);
+                }
+            }
+            return result;
+        } finally {
+            for (int i = LOCK_STRIPES - 1; i >= 0; i--) {
+                if (stripesNeeded[i]) {
+                    stripes[i].unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * An account's funds and shares as the orders of a batch are checked
+     * against it one after another. Balances are read on first use, which
+     * must be after the account's stripe is locked.
+     */
+    private static final class BatchAccount {
+        final User user;
+        final Portfolio portfolio;
+        private double cash;
+        private boolean cashRead;
+        final Map<String, Integer> shares = new HashMap<>();
+
+        BatchAccount(User user, Portfolio portfolio) {
+            this.user = user;
+            this.portfolio = portfolio;
+        }
+
+        double available(TransactionType type, String symbol) {
+            return type == TransactionType.BUY ? cash() : shares(symbol);
+        }
+
+        private double cash() {
+            if (!cashRead) {
+                cash = user.getAvailableBalance();
+                cashRead = true;
+            }
+            return cash;
+        }
+
+        private int shares(String symbol) {
+            return shares.computeIfAbsent(symbol, portfolio::getAvailableQuantity);
+        }
+
+        /**
+         * Check an order and, if it can be filled, count it against the
+         * account.
+         */
+        OrderStatus check(OrderRequest order, String symbol, double price) {
+            int quantity = order.getQuantity();
+            double cost = price * quantity;
+            if (order.getType() == TransactionType.BUY) {
+                if (cash() < cost) {
+                    return OrderStatus.INSUFFICIENT_FUNDS;
+                }
+            } else if (shares(symbol) < quantity) {
+                return OrderStatus.INSUFFICIENT_SHARES;
+            }
+            if (quantity <= 0) {
+                return OrderStatus.INVALID_QUANTITY;
+            }
+            if (order.getType() == TransactionType.BUY) {
+                cash = cash() - cost;
+                shares.put(symbol, shares(symbol) + quantity);
+            } else {
+                cash = cash() + cost;
+                shares.put(symbol, shares(symbol) - quantity);
+            }
+            return OrderStatus.FILLED;
+        }
+    }
+
+    /**
+     * Check a market order at the given price against the account, in the
+     * order the checks are reported to users.
+     */
+    OrderStatus checkMarketOrder(TransactionType type, User user, Portfolio portfolio, String symbol,
+                                 int quantity, double price) {
+        if (type == TransactionType.BUY) {
+            if (user.getAvailableBalance() < price * quantity) {
+                return OrderStatus.INSUFFICIENT_FUNDS;
+            }
+        } else if (portfolio.getAvailableQuantity(symbol) < quantity) {
+            return OrderStatus.INSUFFICIENT_SHARES;
+        }
+        if (quantity <= 0) {
+            return OrderStatus.INVALID_QUANTITY;
+        }
+        return OrderStatus.FILLED;
+    }
+
+    /**
+     * Funds (for a buy) or shares (for a sell) the account can commit.
+     */
+    static double available(TransactionType type, User user, Portfolio portfolio, String symbol) {
+        return type == TransactionType.BUY ? user.getAvailableBalance() : portfolio.getAvailableQuantity(symbol);
+    }
+
+    /**
+     * Draw the IDs of new transactions from a generator other than the
+     * process-wide one, e.g. one on a backtest's simulated clock.
+     */
+    void setTransactionIds(TransactionIdGenerator transactionIds) {
+        this.transactionIds = transactionIds;
+    }
+
+    TransactionIdGenerator getTransactionIds() {
+        return transactionIds;
+    }
+
+    /**
+     * Current time on the market's clock as nanoseconds since the epoch
+     * (UTC), the form transactions store.
+     */
+    long nowNanos() {
+        return CachedClock.epochNanos(market.getClock());
+    }
+
+    /**
+     * User-facing message for the outcome of a market order.
+     *
+     * @param available Funds or shares available when the order was rejected
+     */
+    static String describe(OrderStatus status, TransactionType type, String userId, String symbol,
+                           int quantity, double price, double available) {
+        switch (status) {
+            case FILLED:
+                return String.format("Successfully %s %d shares of %s @ $%.2f",
+                    type == TransactionType.BUY ? "bought" : "sold", quantity, symbol, price);
+            case UNKNOWN_USER:
+                return "Error: User " + userId + " not found";
+            case UNKNOWN_STOCK:
+                return "Stock " + symbol + " not found in market";
+            case INVALID_QUANTITY:
+                return "Quantity must be positive";
+            case INSUFFICIENT_FUNDS:
+                return String.format("Insufficient funds. Need $%.2f, have $%.2f", price * quantity, available);
+            case INSUFFICIENT_SHARES:
+                return String.format("Insufficient shares. Have %d, trying to sell %d", (int) available, quantity);
+            case BATCH_REJECTED:
+                return "Not executed: another order in the batch failed";
+            default:
+                return "Error: order could not be executed";
+        }
+    }
+
+    /**
+     * Apply a journaled market fill to the account and the stock's volume.
+     * The account always changes: a failure to record the trade on the
+     * stock is reported without undoing it, as replay applies it regardless.
+     */
+    void applyFill(User user, Portfolio portfolio, Stock stock, Transaction transaction) {
+        applyTransaction(user, portfolio, transaction);
+        try {
+            stock.recordTrade(transaction.getQuantity(), transaction.getPricePerShare());
+        } catch (RuntimeException e) {
+            System.err.println("Error recording trade of " + stock.getSymbol() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Register a user without journaling or locking, for a caller that owns
+     * all account state.
+     *
+     * @return The new user, or null if the ID is taken
+     */
+    User applyRegistration(String userId, String name, double initialBalance) {
+        if (users.containsKey(userId)) {
+            return null;
+        }
+        return restoreUser(userId, name, initialBalance);
+    }
+
+    /**
+     * Place a limit order on the symbol's order book. It is matched against
+     * resting orders of other users at their prices, oldest first at each
+     * price; any unfilled remainder rests on the book. If matching reaches
+     * one of the user's own resting orders it stops there and the remainder
+     * is cancelled. Funds or shares for the whole order are held back until
+     * it fills or is cancelled. Each fill produces a BUY transaction for the
+     * buyer and a SELL transaction for the seller.
+     */
+    public OrderResult placeLimitOrder(String userId, String symbol, TransactionType type,
+                                       int quantity, double limitPrice) {
         try {
             User user = getUser(userId);
             Portfolio portfolio = getPortfolio(userId);
 
-            if (!market.getAllStocks().containsKey(symbol.toUpperCase())) {
-                return new TransactionResult(false, "Stock " + symbol + " not found in market", null);
+            if (!market.hasStock(symbol)) {
+                return OrderResult.failed("Stock " + symbol + " not found in market");
+            }
+            if (quantity <= 0) {
+                return OrderResult.failed("Quantity must be positive");
+            }
+            long limitCents = OrderBook.toCents(limitPrice);
+            if (limitCents <= 0) {
+                return OrderResult.failed("Limit price must be positive");
             }
 
-            Stock stock = market.getStock(symbol);
-            int currentHoldings = portfolio.getQuantity(symbol);
+            boolean buy = type == TransactionType.BUY;
+            Settlement desk = deskFor(symbol);
+            String failure;
+            ReentrantLock lock = lockFor(userId);
+            lock.lock();
+            try {
+                failure = reserve(user, portfolio, buy, symbol, limitCents, quantity);
+            } finally {
+                lock.unlock();
+            }
+            if (failure != null) {
+                return OrderResult.failed(failure);
+            }
 
-            if (currentHoldings < quantity) {
-                return new TransactionResult(false,
-                    String.format("Insufficient shares. Have %d, trying to sell %d", currentHoldings, quantity),
-                    null);
+            synchronized (desk) {
+                desk.reset(limitCents);
+                long orderId;
+                try {
+                    orderId = desk.book.submit(userId, buy, limitCents, quantity, desk);
+                } catch (RuntimeException e) {
+                    return desk.abort(user, portfolio, buy, quantity, e);
+                }
+                return desk.finish(user, portfolio, buy, orderId, quantity);
+            }
+
+        } catch (Exception e) {
+            return OrderResult.failed("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cancel a user's resting limit order and release what it held back.
+     */
+    public OrderResult cancelOrder(String userId, String symbol, long orderId) {
+        try {
+            Settlement desk = orderBooks.get(symbol.toUpperCase());
+            if (desk == null) {
+                return OrderResult.failed("Order " + orderId + " not found");
+            }
+            boolean buy;
+            long limitCents;
+            int remaining;
+            synchronized (desk) {
+                if (!userId.equals(desk.book.getUserId(orderId))) {
+                    return OrderResult.failed("Order " + orderId + " not found");
+                }
+                buy = desk.book.isBuy(orderId);
+                limitCents = desk.book.getLimitCents(orderId);
+                remaining = desk.book.cancel(orderId);
+            }
+            ReentrantLock lock = lockFor(userId);
+            lock.lock();
+            try {
+                release(getUser(userId), getPortfolio(userId), buy, symbol, limitCents, remaining);
+            } finally {
+                lock.unlock();
+            }
+            return new OrderResult(true, String.format("Cancelled order %d (%d shares of %s)",
+                    orderId, remaining, symbol.toUpperCase()), null, orderId, 0, 0);
+        } catch (Exception e) {
+            return OrderResult.failed("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Change the limit price and/or quantity of a user's resting order.
+     * Reducing the quantity at the same price keeps the order's queue
+     * position; anything else re-enters it as a new order, which may fill
+     * at once.
+     */
+    public OrderResult replaceOrder(String userId, String symbol, long orderId,
+                                    int newQuantity, double newLimitPrice) {
+        try {
+            Settlement desk = orderBooks.get(symbol.toUpperCase());
+            if (desk == null) {
+                return OrderResult.failed("Order " + orderId + " not found");
+            }
+            if (newQuantity <= 0) {
+                return OrderResult.failed("Quantity must be positive");
+            }
+            long newLimitCents = OrderBook.toCents(newLimitPrice);
+            if (newLimitCents <= 0) {
+                return OrderResult.failed("Limit price must be positive");
+            }
+
+            User user = getUser(userId);
+            Portfolio portfolio = getPortfolio(userId);
+            synchronized (desk) {
+                OrderBook book = desk.book;
+                if (!userId.equals(book.getUserId(orderId))) {
+                    return OrderResult.failed("Order " + orderId + " not found");
+                }
+                boolean buy = book.isBuy(orderId);
+                long oldLimitCents = book.getLimitCents(orderId);
+                int oldRemaining = book.getRemaining(orderId);
+                ReentrantLock lock = lockFor(userId);
+                lock.lock();
+                try {
+                    release(user, portfolio, buy, symbol, oldLimitCents, oldRemaining);
+                    String failure = reserve(user, portfolio, buy, symbol, newLimitCents, newQuantity);
+                    if (failure != null) {
+                        reserve(user, portfolio, buy, symbol, oldLimitCents, oldRemaining);
+                        return OrderResult.failed(failure);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                desk.reset(newLimitCents);
+                long newOrderId;
+                try {
+                    newOrderId = book.replace(orderId, newLimitCents, newQuantity, desk);
+                } catch (RuntimeException e) {
+                    return desk.abort(user, portfolio, buy, newQuantity, e);
+                }
+                return desk.finish(user, portfolio, buy, newOrderId, newQuantity);
+            }
+        } catch (Exception e) {
+            return OrderResult.failed("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Order book of a symbol, created on first use. Lock the book while
+     * reading it from another thread.
+     */
+    public OrderBook getOrderBook(String symbol) {
+        return deskFor(symbol).book;
+    }
+
+    private Settlement deskFor(String symbol) {
+        String key = market.getStock(symbol).getSymbol();
+        return orderBooks.computeIfAbsent(key, Settlement::new);
+    }
+
+    /**
+     * Hold back funds or shares for an order.
+     *
+     * @return Reason the order cannot be covered, or null if reserved
+     */
+    private String reserve(User user, Portfolio portfolio, boolean buy, String symbol, long limitCents, int quantity) {
+        if (buy) {
+            long cost = limitCents * quantity;
+            if (user.getAvailableBalance() < OrderBook.toPrice(cost)) {
+                return String.format("Insufficient funds. Need $%.2f, have $%.2f",
+                        OrderBook.toPrice(cost), user.getAvailableBalance());
+            }
+            user.reserveFunds(cost);
+        } else {
+            int available = portfolio.getAvailableQuantity(symbol);
+            if (available < quantity) {
+                return String.format("Insufficient shares. Have %d, trying to sell %d", available, quantity);
             }
+            portfolio.reserveShares(symbol, quantity);
+        }
+        return null;
+    }
+
+    private void release(User user, Portfolio portfolio, boolean buy, String symbol, long limitCents, int quantity) {
+        if (buy) {
+            user.releaseFunds(limitCents * quantity);
+        } else {
+            portfolio.releaseShares(symbol, quantity);
+        }
+    }
+
+    /**
+     * A symbol's order book together with the listener that settles its
+     * fills into accounts. The instance doubles as the book's lock; one
+     * listener is reused for every order on the book.
+     */
+    private class Settlement implements OrderBook.FillListener {
+        private final String symbol;
+        private final OrderBook book;
+        private long takerLimitCents;
+        private int filled;
+        private Transaction lastTakerFill;
+
+        Settlement(String symbol) {
+            this.symbol = symbol;
+            this.book = new OrderBook(symbol);
+        }
 
+        void reset(long takerLimitCents) {
+            this.takerLimitCents = takerLimitCents;
+            this.filled = 0;
+            this.lastTakerFill = null;
+        }
+
+        @Override
+        public void onFill(long makerOrderId, String makerUserId, long takerOrderId, String takerUserId,
+                           boolean takerBuys, long priceCents, int quantity) {
+            String buyerId = takerBuys ? takerUserId : makerUserId;
+            String sellerId = takerBuys ? makerUserId : takerUserId;
+            // A buyer's funds were held at its own limit, which for a resting
+            // buy order is the fill price
+            long buyerLimitCents = takerBuys ? takerLimitCents : priceCents;
+            double price = OrderBook.toPrice(priceCents);
+
+            long executed = nowNanos();
+            Transaction purchase = new Transaction(TransactionType.BUY, symbol, quantity, price, buyerId,
+                    transactionIds, executed);
+            Transaction sale = new Transaction(TransactionType.SELL, symbol, quantity, price, sellerId,
+                    transactionIds, executed);
+
+            User buyer = getUser(buyerId);
+            User seller = getUser(sellerId);
+            Portfolio sellerPortfolio = getPortfolio(sellerId);
+            int first = Math.min(stripe(buyerId), stripe(sellerId));
+            int second = Math.max(stripe(buyerId), stripe(sellerId));
+            stripes[first].lock();
+            stripes[second].lock();
+            try {
+                if (journal != null) {
+                    journal.appendFill(purchase, sale);
+                }
+                buyer.releaseFunds(buyerLimitCents * quantity);
+                sellerPortfolio.releaseShares(symbol, quantity);
+                applyTransaction(buyer, getPortfolio(buyerId), purchase);
+                applyTransaction(seller, sellerPortfolio, sale);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to journal fill of " + symbol, e);
+            } finally {
+                stripes[second].unlock();
+                stripes[first].unlock();
+            }
+            market.getStock(symbol).recordTrade(quantity, price);
+
+            filled += quantity;
+            lastTakerFill = takerBuys ? purchase : sale;
+        }
+
+        /**
+         * Release what was held for any part of the taker's order that was
+         * neither filled nor rested, and describe the outcome.
+         */
+        OrderResult finish(User user, Portfolio portfolio, boolean buy, long orderId, int quantity) {
+            int resting = book.getRemaining(orderId);
+            int cancelled = quantity - filled - resting;
+            releaseTaker(user, portfolio, buy, cancelled);
+            String message = String.format("Order %d for %s: filled %d of %d, %d resting",
+                    orderId, symbol, filled, quantity, resting);
+            if (cancelled > 0) {
+                message += String.format(", %d cancelled to avoid trading with your own order", cancelled);
+            }
+            return new OrderResult(true, message, lastTakerFill, orderId, filled, resting);
+        }
+
+        /**
+         * Release what was held for the unfilled part of a taker's order
+         * after a fill failed. Fills settled before it stand; nothing of the
+         * order rests on the book.
+         */
+        OrderResult abort(User user, Portfolio portfolio, boolean buy, int quantity, RuntimeException e) {
+            releaseTaker(user, portfolio, buy, quantity - filled);
+            System.err.println("Error filling order for " + symbol + ": " + e.getMessage());
+            String message = String.format("Error: %s; filled %d of %d, the rest was cancelled",
+                    e.getMessage(), filled, quantity);
+            return new OrderResult(false, message, lastTakerFill, 0, filled, 0);
+        }
+
+        private void releaseTaker(User user, Portfolio portfolio, boolean buy, int quantity) {
             if (quantity <= 0) {
-                return new TransactionResult(false, "Quantity must be positive", null);
+                return;
+            }
+            ReentrantLock lock = lockFor(user.getUserId());
+            lock.lock();
+            try {
+                release(user, portfolio, buy, symbol, takerLimitCents, quantity);
+            } finally {
+                lock.unlock();
             }
+        }
+    }
 
-            // Create transaction
-            Transaction transaction = new Transaction(
-                TransactionType.SELL, symbol, quantity,
-                stock.getCurrentPrice(), userId
-            );
+    /**
+     * Write a trade ahead to the journal before it touches account state.
+     */
+    private void journalTrade(Transaction transaction) throws IOException {
+        if (journal != null) {
+            journal.appendTrade(transaction);
+        }
+    }
 
-            // Execute transaction
-            double totalValue = stock.getCurrentPrice() * quantity;
-            user.setBalance(user.getBalance() + totalValue);
-            user.addTransaction(transaction);
-            portfolio.addTransaction(transaction);
+    /**
+     * Apply an executed trade to the user's balance and portfolio in one step.
+     */
+    private void applyTransaction(User user, Portfolio portfolio, Transaction transaction) {
+        if (transaction.getTransactionType() == TransactionType.BUY) {
+            user.setBalance(user.getBalance() - transaction.getTotalValue());
+        } else {
+            user.setBalance(user.getBalance() + transaction.getTotalValue());
+        }
+        // The user appends to the account's log; the portfolio reads it
+        user.addTransaction(transaction);
+        portfolio.applyTransaction(transaction);
+    }
 
-            return new TransactionResult(true,
-                String.format("Successfully sold %d shares of %s @ $%.2f", quantity, symbol, stock.getCurrentPrice()),
-                transaction);
+    /**
+     * Record a performance snapshot of a user's portfolio at current prices.
+     */
+    public void recordPerformance(String userId) {
+        Portfolio portfolio = getPortfolio(userId);
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            Portfolio.PerformancePoint point = portfolio.recordPerformance(market.getSnapshot(),
+                    market.getClock().millis());
+            if (journal != null) {
+                try {
+                    journal.appendPerformance(userId, point);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to journal performance of " + userId, e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        } catch (Exception e) {
-            return new TransactionResult(false, "Error: " + e.getMessage(), null);
+    /**
+     * Revalue every portfolio at the latest published prices.
+     *
+     * Accounts are processed in shards, one per lock stripe, on the common
+     * fork/join pool. Each shard takes its stripe once and values all of its
+     * portfolios against a price vector shared read-only by every shard, so
+     * the pass scales with cores and sees each account between trades.
+     * Performance history is not touched; each portfolio keeps only its
+     * latest mark.
+     */
+    public MarkResult markToMarket() {
+        long start = System.nanoTime();
+        MarketSnapshot snapshot = market.getSnapshot();
+        double[] prices = snapshot.pricesById();
+        long version = snapshot.getVersion();
+        Portfolio[][] shards = markShards();
+        double[] totals = new double[LOCK_STRIPES];
+        IntStream.range(0, LOCK_STRIPES).parallel().forEach(stripe -> {
+            double total = 0.0;
+            stripes[stripe].lock();
+            try {
+                for (Portfolio portfolio : shards[stripe]) {
+                    total += portfolio.markToMarket(prices, version);
+                }
+            } finally {
+                stripes[stripe].unlock();
+            }
+            totals[stripe] = total;
+        });
+        double totalValue = 0.0;
+        int accounts = 0;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            totalValue += totals[i];
+            accounts += shards[i].length;
+        }
+        return new MarkResult(version, accounts, totalValue, System.nanoTime() - start);
+    }
+
+    /**
+     * Revalue only the portfolios holding a symbol, for example after a
+     * price shock to a single name. Each holder is fully revalued at the
+     * latest published prices.
+     */
+    public MarkResult markToMarket(String symbol) {
+        long start = System.nanoTime();
+        MarketSnapshot snapshot = market.getSnapshot();
+        double[] prices = snapshot.pricesById();
+        double totalValue = 0.0;
+        int accounts = 0;
+        for (Portfolio portfolio : holders.holdersOf(symbol)) {
+            ReentrantLock lock = lockFor(portfolio.getUserId());
+            lock.lock();
+            try {
+                totalValue += portfolio.markToMarket(prices, snapshot.getVersion());
+            } finally {
+                lock.unlock();
+            }
+            accounts++;
+        }
+        return new MarkResult(snapshot.getVersion(), accounts, totalValue, System.nanoTime() - start);
+    }
+
+    /**
+     * IDs of the users currently holding a symbol.
+     */
+    public List<String> getHolders(String symbol) {
+        List<String> userIds = new ArrayList<>();
+        for (Portfolio portfolio : holders.holdersOf(symbol)) {
+            userIds.add(portfolio.getUserId());
+        }
+        return userIds;
+    }
+
+    /**
+     * Total shares of a symbol held across all accounts.
+     */
+    public long getOpenInterest(String symbol) {
+        long total = 0;
+        for (Portfolio portfolio : holders.holdersOf(symbol)) {
+            ReentrantLock lock = lockFor(portfolio.getUserId());
+            lock.lock();
+            try {
+                total += portfolio.getQuantity(symbol);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Market value of all shares of a symbol held across accounts.
+     */
+    public double getExposure(String symbol) {
+        return getOpenInterest(symbol) * market.getStock(symbol).getCurrentPrice();
+    }
+
+    /**
+     * IDs of the users holding more than the given number of shares of a
+     * symbol. Only current holders are examined.
+     */
+    public List<String> getLimitBreaches(String symbol, int maxShares) {
+        List<String> userIds = new ArrayList<>();
+        for (Portfolio portfolio : holders.holdersOf(symbol)) {
+            ReentrantLock lock = lockFor(portfolio.getUserId());
+            lock.lock();
+            try {
+                if (portfolio.getQuantity(symbol) > maxShares) {
+                    userIds.add(portfolio.getUserId());
+                }
+            } finally {
+                lock.unlock();
+            }
         }
+        return userIds;
+    }
+
+    /**
+     * Portfolios grouped by lock stripe, regrouped only when accounts have
+     * been added since the last pass.
+     */
+    private synchronized Portfolio[][] markShards() {
+        if (markShardsSize != portfolios.size()) {
+            List<List<Portfolio>> grouped = new ArrayList<>(LOCK_STRIPES);
+            for (int i = 0; i < LOCK_STRIPES; i++) {
+                grouped.add(new ArrayList<>());
+            }
+            int size = 0;
+            for (Map.Entry<String, Portfolio> entry : portfolios.entrySet()) {
+                grouped.get(stripe(entry.getKey())).add(entry.getValue());
+                size++;
+            }
+            Portfolio[][] shards = new Portfolio[LOCK_STRIPES][];
+            for (int i = 0; i < LOCK_STRIPES; i++) {
+                shards[i] = grouped.get(i).toArray(new Portfolio[0]);
+            }
+            markShards = shards;
+            markShardsSize = size;
+        }
+        return markShards;
+    }
+
+    /**
+     * Capture balances and holdings of every account together with the
+     * journal sequence number they are current up to. Every stripe is held
+     * while copying, so no journaled change is half applied.
+     */
+    public Snapshot captureSnapshot() {
+        for (ReentrantLock lock : stripes) {
+            lock.lock();
+        }
+        try {
+            long sequence = journal != null ? journal.getLastSequence() : 0;
+            return Snapshot.capture(sequence, users, portfolios);
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * Visitor that re-applies journal records on top of loaded state.
+     */
+    public TradeJournal.Visitor journalReplayer() {
+        return new TradeJournal.Visitor() {
+            @Override
+            public void onRegister(String userId, String name, double initialBalance) {
+                if (!users.containsKey(userId)) {
+                    restoreUser(userId, name, initialBalance);
+                }
+            }
+
+            @Override
+            public void onTrade(Transaction transaction) {
+                String userId = transaction.getUserId();
+                applyTransaction(getUser(userId), getPortfolio(userId), transaction);
+            }
+
+            @Override
+            public void onPerformance(String userId, long timestampMillis, double value) {
+                getPortfolio(userId).restorePerformance(new Portfolio.PerformancePoint(timestampMillis, value));
+            }
+        };
     }
 
     /**
@@ -184,11 +1049,14 @@ public class TradingSystem {
             System.out.printf("%-45s $%.2f%n", "Total Holdings Value", totalHoldingsValue);
 
             // Performance metrics
-            Map<String, Double> pnl = portfolio.calculateProfitLoss(market.getAllStocks(), user.getInitialBalance());
+            Map<String, Double> pnl = portfolio.calculateProfitLoss(market.getSnapshot().getStocks(),
+                    user.getInitialBalance());
             System.out.println("\nPerformance Metrics:");
             System.out.printf("  Total Cost Basis: $%.2f%n", pnl.get("total_cost"));
             System.out.printf("  Current Holdings Value: $%.2f%n", pnl.get("current_value"));
             System.out.printf("  Profit/Loss: $%.2f (%.2f%%)%n", pnl.get("profit_loss"), pnl.get("profit_loss_percent"));
+            System.out.printf("    Realized: $%.2f  Unrealized: $%.2f%n", pnl.get("realized_pnl"),
+                    pnl.get("unrealized_pnl"));
             System.out.printf("  Total Portfolio Value: $%.2f%n", user.getBalance() + totalHoldingsValue);
 
             // Overall return
@@ -207,27 +1075,43 @@ public class TradingSystem {
      * Display user's transaction history.
      */
     public void displayTransactionHistory(String userId) {
+        displayTransactionHistory(userId, null, HISTORY_PAGE_SIZE);
+    }
+
+    /**
+     * Display a user's most recent transactions, newest first.
+     *
+     * @param symbol Only this symbol, or null for all
+     * @param limit Maximum number of transactions shown
+     */
+    public void displayTransactionHistory(String userId, String symbol, int limit) {
         User user = getUser(userId);
-        List<Transaction> transactions = user.getTransactionHistory();
+        TransactionStore store = user.getTransactions();
+        TransactionStore.Page page = store.query(symbol, null, null, TransactionStore.FIRST_PAGE, limit);
+        int total = symbol != null ? store.size(symbol) : store.size();
 
         System.out.println("\n" + "=".repeat(80));
         System.out.println(String.format("%80s", "TRANSACTION HISTORY - " + user.getName()));
         System.out.println("=".repeat(80));
 
-        if (transactions.isEmpty()) {
+        if (page.getItems().isEmpty()) {
             System.out.println("No transactions yet.");
         } else {
             System.out.printf("%-8s %-10s %-12s %-15s %-15s %-20s%n",
                 "Type", "Symbol", "Quantity", "Price", "Total", "Time");
             System.out.println("-".repeat(80));
-            for (Transaction transaction : transactions) {
+            DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+            for (Transaction transaction : page.getItems()) {
                 System.out.printf("%-8s %-10s %-12d $%-14.2f $%-14.2f %-20s%n",
                     transaction.getTransactionType(),
                     transaction.getStockSymbol(),
                     transaction.getQuantity(),
                     transaction.getPricePerShare(),
                     transaction.getTotalValue(),
-                    transaction.getTimestamp().toString().replace("T", " ").substring(0, 19));
+                    format.format(transaction.getTimestamp()));
+            }
+            if (page.hasMore()) {
+                System.out.printf("(Showing latest %d of %d)%n", page.getItems().size(), total);
             }
         }
 
@@ -261,6 +1145,137 @@ public class TradingSystem {
         }
     }
 
+    /**
+     * Result of placing, replacing or cancelling a limit order. The
+     * transaction is the order's last fill, if any.
+     */
+    public static class OrderResult extends TransactionResult {
+        private long orderId;
+        private int filledQuantity;
+        private int restingQuantity;
+
+        public OrderResult(boolean success, String message, Transaction transaction,
+                           long orderId, int filledQuantity, int restingQuantity) {
+            super(success, message, transaction);
+            this.orderId = orderId;
+            this.filledQuantity = filledQuantity;
+            this.restingQuantity = restingQuantity;
+        }
+
+        static OrderResult failed(String message) {
+            return new OrderResult(false, message, null, 0, 0, 0);
+        }
+
+        public long getOrderId() {
+            return orderId;
+        }
+
+        public int getFilledQuantity() {
+            return filledQuantity;
+        }
+
+        public int getRestingQuantity() {
+            return restingQuantity;
+        }
+    }
+
+    /**
+     * Outcome of every order in a batch, by position in the request list.
+     * Messages are only formatted when asked for.
+     */
+    public static class BatchResult {
+        private final List<OrderRequest> orders;
+        private final OrderStatus[] statuses;
+        private final Transaction[] transactions;
+        private final double[] prices;
+        private final double[] available;
+
+        BatchResult(List<OrderRequest> orders) {
+            this.orders = orders;
+            this.statuses = new OrderStatus[orders.size()];
+            this.transactions = new Transaction[orders.size()];
+            this.prices = new double[orders.size()];
+            this.available = new double[orders.size()];
+        }
+
+        public int size() {
+            return statuses.length;
+        }
+
+        public OrderStatus getStatus(int index) {
+            return statuses[index];
+        }
+
+        /**
+         * Fill of the order, or null if it was not executed.
+         */
+        public Transaction getTransaction(int index) {
+            return transactions[index];
+        }
+
+        public String getMessage(int index) {
+            OrderRequest order = orders.get(index);
+            return describe(statuses[index], order.getType(), order.getUserId(), order.getSymbol(),
+                    order.getQuantity(), prices[index], available[index]);
+        }
+
+        public int getFilledCount() {
+            int filled = 0;
+            for (OrderStatus status : statuses) {
+                if (status == OrderStatus.FILLED) {
+                    filled++;
+                }
+            }
+            return filled;
+        }
+
+        /**
+         * Whether every order in the batch was filled.
+         */
+        public boolean isSuccess() {
+            return getFilledCount() == statuses.length;
+        }
+    }
+
+    /**
+     * Summary of one mark-to-market pass.
+     */
+    public static class MarkResult {
+        private final long version;
+        private final int accounts;
+        private final double totalValue;
+        private final long elapsedNanos;
+
+        public MarkResult(long version, int accounts, double totalValue, long elapsedNanos) {
+            this.version = version;
+            this.accounts = accounts;
+            this.totalValue = totalValue;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Version of the market snapshot the accounts were valued at.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        public int getAccounts() {
+            return accounts;
+        }
+
+        /**
+         * Combined holdings value of every account.
+         */
+        public double getTotalValue() {
+            return totalValue;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
     public Map<String, User> getUsers() {
         return users;
     }
@@ -270,11 +1285,27 @@ public class TradingSystem {
     }
 
     public void setUsers(Map<String, User> users) {
-        this.users = users;
+        this.users = new ConcurrentHashMap<>(users);
     }
 
     public void setPortfolios(Map<String, Portfolio> portfolios) {
-        this.portfolios = portfolios;
+        this.portfolios = new ConcurrentHashMap<>(portfolios);
+        HolderIndex index = new HolderIndex();
+        for (Portfolio portfolio : portfolios.values()) {
+            index.attach(portfolio);
+        }
+        this.holders = index;
+        synchronized (this) {
+            markShardsSize = -1;
+        }
+    }
+
+    /**
+     * Attach a write-ahead journal; every subsequent registration, trade and
+     * performance snapshot is appended to it before being applied.
+     */
+    public void setJournal(TradeJournal journal) {
+        this.journal = journal;
     }
 }
 
@@ -8,14 +8,18 @@ import java.time.LocalDateTime;
  */
 public class Transaction implements Serializable {
     private static final long serialVersionUID = 1L;
-    private String transactionId;
+    static final TransactionIdGenerator IDS =
+            new TransactionIdGenerator(Integer.getInteger("trading.nodeId", 0));
+
+    private long id; // generated ID, or 0 if the ID was given as a string
+    private String transactionId; // rendered on first use for generated IDs
     private TransactionType transactionType;
     private String stockSymbol;
     private int quantity;
     private double pricePerShare;
     private double totalValue;
     private String userId;
-    private LocalDateTime timestamp;
+    private long timestamp; // nanoseconds since the epoch (UTC)
 
     /**
      * Initialize a transaction.
@@ -25,19 +29,61 @@ public class Transaction implements Serializable {
      * @param quantity Number of shares
      * @param pricePerShare Price at time of transaction
      * @param userId ID of user making transaction
-     * @param transactionId Optional unique transaction ID
+     * @param transactionId Optional unique transaction ID; one is generated if null
+     * @param timestamp Time the transaction was executed
      */
     public Transaction(TransactionType transactionType, String stockSymbol, int quantity,
-                      double pricePerShare, String userId, String transactionId) {
+                      double pricePerShare, String userId, String transactionId, LocalDateTime timestamp) {
+        this(transactionType, stockSymbol, quantity, pricePerShare, userId,
+                transactionId, BinaryCodec.toEpochNanos(timestamp));
+    }
+
+    /**
+     * Record a new transaction at a time taken from a clock.
+     *
+     * @param ids Source of the transaction's ID
+     * @param timestamp Nanoseconds since the epoch (UTC)
+     */
+    Transaction(TransactionType transactionType, String stockSymbol, int quantity,
+                double pricePerShare, String userId, TransactionIdGenerator ids, long timestamp) {
+        this(transactionType, stockSymbol, quantity, pricePerShare, userId, null, ids.nextId(), timestamp);
+    }
+
+    /**
+     * Restore a transaction with a string ID, or generate one if null.
+     */
+    Transaction(TransactionType transactionType, String stockSymbol, int quantity,
+                double pricePerShare, String userId, String transactionId, long timestamp) {
+        this(transactionType, stockSymbol, quantity, pricePerShare, userId,
+                transactionId, transactionId == null ? IDS.nextId() : 0, timestamp);
+    }
+
+    /**
+     * Restore a transaction with a generated ID.
+     */
+    Transaction(TransactionType transactionType, String stockSymbol, int quantity,
+                double pricePerShare, String userId, long id, long timestamp) {
+        this(transactionType, stockSymbol, quantity, pricePerShare, userId, null, id, timestamp);
+        IDS.advancePast(id);
+    }
+
+    private Transaction(TransactionType transactionType, String stockSymbol, int quantity,
+                        double pricePerShare, String userId, String transactionId, long id, long timestamp) {
         this.transactionType = transactionType;
         this.stockSymbol = stockSymbol.toUpperCase();
         this.quantity = quantity;
         this.pricePerShare = pricePerShare;
         this.totalValue = quantity * pricePerShare;
         this.userId = userId;
-        this.timestamp = LocalDateTime.now();
-        this.transactionId = transactionId != null ? transactionId :
-                String.format("%d_%s", System.currentTimeMillis(), stockSymbol);
+        this.timestamp = timestamp;
+        this.transactionId = transactionId;
+        this.id = id;
+    }
+
+    public Transaction(TransactionType transactionType, String stockSymbol, int quantity,
+                      double pricePerShare, String userId, String transactionId) {
+        this(transactionType, stockSymbol, quantity, pricePerShare, userId, transactionId,
+                CachedClock.epochNanos(CachedClock.systemDefault()));
     }
 
     public Transaction(TransactionType transactionType, String stockSymbol, int quantity,
@@ -47,7 +93,20 @@ public class Transaction implements Serializable {
 
     // Getters
     public String getTransactionId() {
-        return transactionId;
+        String rendered = transactionId;
+        if (rendered == null) {
+            rendered = TransactionIdGenerator.toString(id);
+            transactionId = rendered;
+        }
+        return rendered;
+    }
+
+    /**
+     * Generated numeric ID, or 0 for a transaction recorded with a string
+     * ID by an earlier version.
+     */
+    public long getId() {
+        return id;
     }
 
     public TransactionType getTransactionType() {
@@ -74,7 +133,18 @@ public class Transaction implements Serializable {
         return userId;
     }
 
+    /**
+     * Time the transaction was executed in the system time zone; built on
+     * each call, so hot paths should use {@link #getEpochNanos()}.
+     */
     public LocalDateTime getTimestamp() {
+        return BinaryCodec.fromEpochNanos(timestamp);
+    }
+
+    /**
+     * Time of execution as nanoseconds since the epoch (UTC).
+     */
+    public long getEpochNanos() {
         return timestamp;
     }
 
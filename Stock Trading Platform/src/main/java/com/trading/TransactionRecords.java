@@ -0,0 +1,147 @@
+package com.trading;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transactions packed into fixed-width slots of direct (off-heap) buffers.
+ *
+ * A slot holds the generated ID, timestamp, price, quantity, symbol ID,
+ * user number and type in {@value #SLOT_BYTES} bytes, against a couple of
+ * hundred bytes for a Transaction object and its strings. Buffers are
+ * allocated in chunks of {@value #CHUNK_SLOTS} slots and never copied, so
+ * millions of trades cost the garbage collector a handful of objects.
+ * String IDs from earlier versions, which do not fit a slot, are kept on
+ * the side.
+ *
+ * Not thread-safe; the owning account's lock covers it.
+ */
+final class TransactionRecords {
+    static final int SLOT_BYTES = 40;
+    private static final int CHUNK_SLOTS = 1 << 16;
+
+    private static final int ID = 0;
+    private static final int TIME = 8;
+    private static final int PRICE = 16;
+    private static final int QUANTITY = 24;
+    private static final int SYMBOL = 28;
+    private static final int USER = 32;
+    private static final int TYPE = 36;
+
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int size;
+    private final List<String> userIds = new ArrayList<>(1);
+    private final Map<String, Integer> userNumbers = new HashMap<>(2);
+    private final Map<Integer, String> stringIds = new HashMap<>();
+
+    void add(Transaction transaction) {
+        int chunk = size / CHUNK_SLOTS;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunk * 2);
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = ByteBuffer.allocateDirect(CHUNK_SLOTS * SLOT_BYTES);
+        }
+        ByteBuffer buffer = chunks[chunk];
+        int offset = (size % CHUNK_SLOTS) * SLOT_BYTES;
+        buffer.putLong(offset + ID, transaction.getId());
+        buffer.putLong(offset + TIME, transaction.getEpochNanos());
+        buffer.putDouble(offset + PRICE, transaction.getPricePerShare());
+        buffer.putInt(offset + QUANTITY, transaction.getQuantity());
+        buffer.putInt(offset + SYMBOL, SymbolTable.idOf(transaction.getStockSymbol()));
+        buffer.putInt(offset + USER, userNumber(transaction.getUserId()));
+        buffer.put(offset + TYPE, (byte) transaction.getTransactionType().ordinal());
+        if (transaction.getId() == 0) {
+            stringIds.put(size, transaction.getTransactionId());
+        }
+        size++;
+    }
+
+    private int userNumber(String userId) {
+        Integer number = userNumbers.get(userId);
+        if (number == null) {
+            number = userIds.size();
+            userIds.add(userId);
+            userNumbers.put(userId, number);
+        }
+        return number;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Timestamp of a slot as epoch nanos, read without materializing it.
+     */
+    long epochNanosAt(int index) {
+        return buffer(index).getLong(offset(index) + TIME);
+    }
+
+    /**
+     * Materialize the transaction in a slot.
+     */
+    Transaction get(int index) {
+        ByteBuffer buffer = buffer(index);
+        int offset = offset(index);
+        long id = buffer.getLong(offset + ID);
+        TransactionType type = TYPES[buffer.get(offset + TYPE)];
+        String symbol = SymbolTable.symbolOf(buffer.getInt(offset + SYMBOL));
+        int quantity = buffer.getInt(offset + QUANTITY);
+        double price = buffer.getDouble(offset + PRICE);
+        String userId = userIds.get(buffer.getInt(offset + USER));
+        long timestamp = buffer.getLong(offset + TIME);
+        return id != 0
+                ? new Transaction(type, symbol, quantity, price, userId, id, timestamp)
+                : new Transaction(type, symbol, quantity, price, userId, stringIds.get(index), timestamp);
+    }
+
+    ByteBuffer buffer(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range for " + size + " records");
+        }
+        return chunks[index / CHUNK_SLOTS];
+    }
+
+    static int offset(int index) {
+        return (index % CHUNK_SLOTS) * SLOT_BYTES;
+    }
+
+    long idAt(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + ID);
+    }
+
+    String stringIdAt(int index) {
+        return stringIds.get(index);
+    }
+
+    double priceAt(ByteBuffer buffer, int offset) {
+        return buffer.getDouble(offset + PRICE);
+    }
+
+    int quantityAt(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + QUANTITY);
+    }
+
+    int symbolIdAt(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + SYMBOL);
+    }
+
+    String userIdAt(ByteBuffer buffer, int offset) {
+        return userIds.get(buffer.getInt(offset + USER));
+    }
+
+    TransactionType typeAt(ByteBuffer buffer, int offset) {
+        return TYPES[buffer.get(offset + TYPE)];
+    }
+
+    long epochNanosAt(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + TIME);
+    }
+}
@@ -0,0 +1,284 @@
+package com.trading;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only transaction history with a per-symbol index.
+ *
+ * Transactions are kept in arrival order, which is also time order, so a
+ * time range is found by binary search. Each symbol keeps the positions of
+ * its transactions in a primitive array. Queries return pages newest first
+ * and resume from a cursor, so reading the latest N trades costs O(N) no
+ * matter how long the history is.
+ *
+ * One store is the account's single log: the user and the portfolio both
+ * read and record through the same instance, so each trade is held once.
+ *
+ * Once a log reaches {@link #OFF_HEAP_THRESHOLD} transactions it moves them
+ * into off-heap {@link TransactionRecords} slots and keeps no Transaction
+ * objects; reads then materialize transactions on demand, or go through a
+ * reusable {@link TransactionView} without allocating.
+ */
+public class TransactionStore {
+    /** Cursor that starts a query at the newest matching transaction. */
+    public static final int FIRST_PAGE = Integer.MAX_VALUE;
+
+    /** Size at which a log moves its transactions off-heap. */
+    public static final int OFF_HEAP_THRESHOLD = Integer.getInteger("trading.offHeapThreshold", 100_000);
+
+    private List<Transaction> transactions = new ArrayList<>(); // null once off-heap
+    private TransactionRecords records;
+    private Map<String, Positions> bySymbol = new HashMap<>();
+    private long newestNanos = Long.MIN_VALUE;
+    private boolean ordered = true;
+
+    /**
+     * One page of query results, newest first.
+     */
+    public static class Page {
+        private final List<Transaction> items;
+        private final int nextCursor;
+
+        Page(List<Transaction> items, int nextCursor) {
+            this.items = items;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Transaction> getItems() {
+            return items;
+        }
+
+        /**
+         * Whether older matching transactions remain.
+         */
+        public boolean hasMore() {
+            return nextCursor >= 0;
+        }
+
+        /**
+         * Cursor for the next (older) page, or -1 if there is none.
+         */
+        public int getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    /**
+     * Append a transaction.
+     */
+    void add(Transaction transaction) {
+        if (transaction.getEpochNanos() < newestNanos) {
+            ordered = false;
+        }
+        int position = size();
+        if (records != null) {
+            records.add(transaction);
+        } else {
+            transactions.add(transaction);
+            if (transactions.size() >= OFF_HEAP_THRESHOLD) {
+                moveOffHeap();
+            }
+        }
+        newestNanos = transaction.getEpochNanos();
+        bySymbol.computeIfAbsent(transaction.getStockSymbol(), key -> new Positions()).add(position);
+    }
+
+    private void moveOffHeap() {
+        records = new TransactionRecords();
+        for (Transaction transaction : transactions) {
+            records.add(transaction);
+        }
+        transactions = null;
+    }
+
+    /**
+     * Whether the transactions are held in off-heap slots.
+     */
+    public boolean isOffHeap() {
+        return records != null;
+    }
+
+    /**
+     * Place older transactions in front of the current ones. Positions
+     * shift, so cursors issued before this are no longer valid.
+     */
+    void prepend(List<Transaction> older) {
+        List<Transaction> current = toList();
+        clear();
+        for (Transaction transaction : older) {
+            add(transaction);
+        }
+        for (Transaction transaction : current) {
+            add(transaction);
+        }
+    }
+
+    private void clear() {
+        transactions = new ArrayList<>();
+        records = null;
+        bySymbol = new HashMap<>();
+        newestNanos = Long.MIN_VALUE;
+        ordered = true;
+    }
+
+    public int size() {
+        return records != null ? records.size() : transactions.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Number of transactions in a symbol.
+     */
+    public int size(String symbol) {
+        Positions positions = bySymbol.get(symbol.toUpperCase());
+        return positions != null ? positions.size : 0;
+    }
+
+    /**
+     * Transaction at a position; 0 is the oldest. Off-heap logs build a new
+     * object on each call; use {@link #get(int, TransactionView)} to scan.
+     */
+    public Transaction get(int index) {
+        return records != null ? records.get(index) : transactions.get(index);
+    }
+
+    /**
+     * Move a view to the transaction at a position, without allocating.
+     *
+     * @return The view
+     */
+    public TransactionView get(int index, TransactionView view) {
+        if (records != null) {
+            view.wrap(records, index);
+        } else {
+            view.wrap(transactions.get(index));
+        }
+        return view;
+    }
+
+    /**
+     * Copy of the whole history, oldest first.
+     */
+    public List<Transaction> toList() {
+        if (records == null) {
+            return new ArrayList<>(transactions);
+        }
+        List<Transaction> copy = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            copy.add(records.get(i));
+        }
+        return copy;
+    }
+
+    /**
+     * The newest transactions, newest first.
+     */
+    public Page latest(int limit) {
+        return query(null, null, null, FIRST_PAGE, limit);
+    }
+
+    /**
+     * The newest transactions in a symbol, newest first.
+     */
+    public Page latest(String symbol, int limit) {
+        return query(symbol, null, null, FIRST_PAGE, limit);
+    }
+
+    /**
+     * Page through transactions newest first.
+     *
+     * @param symbol Only this symbol, or null for all
+     * @param from Earliest time, inclusive, or null
+     * @param to Latest time, exclusive, or null
+     * @param cursor {@link #FIRST_PAGE} or the cursor of the previous page
+     * @param limit Maximum number of transactions in the page
+     */
+    public Page query(String symbol, LocalDateTime from, LocalDateTime to, int cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        Positions positions = null;
+        int size = size();
+        if (symbol != null) {
+            positions = bySymbol.get(symbol.toUpperCase());
+            size = positions != null ? positions.size : 0;
+        }
+        int start = 0;
+        int end = Math.min(cursor, size);
+        if (ordered) {
+            if (from != null) {
+                start = lowerBound(positions, size, BinaryCodec.toEpochNanos(from));
+            }
+            if (to != null) {
+                end = Math.min(end, lowerBound(positions, size, BinaryCodec.toEpochNanos(to)));
+            }
+        }
+
+        List<Transaction> items = new ArrayList<>(Math.min(limit, Math.max(end - start, 0)));
+        int i = end - 1;
+        for (; i >= start && items.size() < limit; i--) {
+            int position = positions != null ? positions.at(i) : i;
+            if (ordered || inRange(position, from, to)) {
+                items.add(get(position));
+            }
+        }
+        return new Page(Collections.unmodifiableList(items), i >= start ? i + 1 : -1);
+    }
+
+    private boolean inRange(int position, LocalDateTime from, LocalDateTime to) {
+        long time = epochNanosAt(position);
+        return (from == null || time >= BinaryCodec.toEpochNanos(from))
+                && (to == null || time < BinaryCodec.toEpochNanos(to));
+    }
+
+    private long epochNanosAt(int position) {
+        return records != null ? records.epochNanosAt(position)
+                : transactions.get(position).getEpochNanos();
+    }
+
+    /**
+     * First index in the (symbol) list whose time is at or after the given
+     * time.
+     */
+    private int lowerBound(Positions positions, int size, long epochNanos) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (epochNanosAt(positions != null ? positions.at(mid) : mid) < epochNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Growable list of positions in the main history.
+     */
+    private static final class Positions {
+        private int[] values = new int[8];
+        private int size;
+
+        void add(int position) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = position;
+        }
+
+        int at(int index) {
+            return values[index];
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.trading;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+
+/**
+ * Reusable, read-only view of one transaction in a {@link TransactionStore}.
+ *
+ * The view has the same getters as {@link Transaction} but reads them from
+ * wherever the store keeps the trade, including off-heap slots, so walking a
+ * long history through one view allocates nothing for the numeric fields.
+ * A view is only valid until it is moved to another transaction or the
+ * store is changed; call {@link #toTransaction()} to keep one.
+ */
+public final class TransactionView {
+    private Transaction transaction;
+    private TransactionRecords records;
+    private ByteBuffer buffer;
+    private int index;
+    private int offset;
+
+    void wrap(Transaction transaction) {
+        this.transaction = transaction;
+        this.records = null;
+        this.buffer = null;
+    }
+
+    void wrap(TransactionRecords records, int index) {
+        this.transaction = null;
+        this.records = records;
+        this.buffer = records.buffer(index);
+        this.index = index;
+        this.offset = TransactionRecords.offset(index);
+    }
+
+    /**
+     * Generated numeric ID, or 0 for a transaction recorded with a string ID.
+     */
+    public long getId() {
+        return transaction != null ? transaction.getId() : records.idAt(buffer, offset);
+    }
+
+    public String getTransactionId() {
+        if (transaction != null) {
+            return transaction.getTransactionId();
+        }
+        long id = records.idAt(buffer, offset);
+        return id != 0 ? TransactionIdGenerator.toString(id) : records.stringIdAt(index);
+    }
+
+    public TransactionType getTransactionType() {
+        return transaction != null ? transaction.getTransactionType() : records.typeAt(buffer, offset);
+    }
+
+    public String getStockSymbol() {
+        return transaction != null ? transaction.getStockSymbol()
+                : SymbolTable.symbolOf(records.symbolIdAt(buffer, offset));
+    }
+
+    public int getQuantity() {
+        return transaction != null ? transaction.getQuantity() : records.quantityAt(buffer, offset);
+    }
+
+    public double getPricePerShare() {
+        return transaction != null ? transaction.getPricePerShare() : records.priceAt(buffer, offset);
+    }
+
+    public double getTotalValue() {
+        return transaction != null ? transaction.getTotalValue() : getQuantity() * getPricePerShare();
+    }
+
+    public String getUserId() {
+        return transaction != null ? transaction.getUserId() : records.userIdAt(buffer, offset);
+    }
+
+    public LocalDateTime getTimestamp() {
+        return transaction != null ? transaction.getTimestamp()
+                : BinaryCodec.fromEpochNanos(records.epochNanosAt(buffer, offset));
+    }
+
+    /**
+     * Timestamp as nanoseconds since the epoch (UTC), without allocating.
+     */
+    public long getEpochNanos() {
+        return transaction != null ? transaction.getEpochNanos()
+                : records.epochNanosAt(buffer, offset);
+    }
+
+    /**
+     * Standalone copy of the transaction the view is on.
+     */
+    public Transaction toTransaction() {
+        return transaction != null ? transaction : records.get(index);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d shares of %s @ $%.2f = $%.2f",
+                getTransactionType(), getQuantity(), getStockSymbol(), getPricePerShare(), getTotalValue());
+    }
+}
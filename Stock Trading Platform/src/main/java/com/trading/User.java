@@ -1,7 +1,6 @@
 package com.trading;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -13,7 +12,10 @@ public class User implements Serializable {
     private String name;
     private double balance;
     private double initialBalance;
-    private List<Transaction> transactions;
+    private TransactionStore transactions;
+    private double totalInvested; // buys minus sells
+    private transient DeferredHistory deferredHistory;
+    private transient long reservedCents; // held for open buy orders
 
     /**
      * Initialize a user.
@@ -27,7 +29,7 @@ public class User implements Serializable {
         this.name = name;
         this.balance = initialBalance;
         this.initialBalance = initialBalance;
-        this.transactions = new ArrayList<>();
+        this.transactions = new TransactionStore();
     }
 
     /**
@@ -35,28 +37,69 @@ public class User implements Serializable {
      */
     public void addTransaction(Transaction transaction) {
         this.transactions.add(transaction);
+        if (transaction.getTransactionType() == TransactionType.BUY) {
+            totalInvested += transaction.getTotalValue();
+        } else if (transaction.getTransactionType() == TransactionType.SELL) {
+            totalInvested -= transaction.getTotalValue();
+        }
     }
 
     /**
      * Get all transactions for this user.
      */
     public List<Transaction> getTransactionHistory() {
-        return new ArrayList<>(transactions);
+        loadDeferredHistory();
+        return transactions.toList();
+    }
+
+    /**
+     * Indexed transaction history for paged queries.
+     */
+    public TransactionStore getTransactions() {
+        loadDeferredHistory();
+        return transactions;
+    }
+
+    /**
+     * The account's transaction log as it stands, without loading deferred
+     * history; the portfolio is given this same log.
+     */
+    TransactionStore transactionLog() {
+        return transactions;
     }
 
     /**
-     * Calculate total amount invested in stocks.
+     * Total amount invested in stocks: purchases minus sales.
      */
     public double getTotalInvested() {
-        double total = 0.0;
-        for (Transaction transaction : transactions) {
-            if (transaction.getTransactionType() == TransactionType.BUY) {
-                total += transaction.getTotalValue();
-            } else if (transaction.getTransactionType() == TransactionType.SELL) {
-                total -= transaction.getTotalValue();
-            }
+        return totalInvested;
+    }
+
+    /**
+     * Restore the running total from a snapshot.
+     */
+    void restoreTotalInvested(double totalInvested) {
+        this.totalInvested = totalInvested;
+    }
+
+    /**
+     * Attach history that is read from the journal on first use.
+     */
+    void setDeferredHistory(DeferredHistory deferredHistory) {
+        this.deferredHistory = deferredHistory;
+    }
+
+    /**
+     * Place older, lazily loaded transactions in front of the recent ones.
+     */
+    void prependHistory(List<Transaction> older) {
+        transactions.prepend(older);
+    }
+
+    private void loadDeferredHistory() {
+        if (deferredHistory != null) {
+            deferredHistory.ensureLoaded();
         }
-        return total;
     }
 
     // Getters and Setters
@@ -76,6 +119,27 @@ public class User implements Serializable {
         this.balance = balance;
     }
 
+    /**
+     * Balance not held back for open buy orders.
+     */
+    public double getAvailableBalance() {
+        return balance - OrderBook.toPrice(reservedCents);
+    }
+
+    /**
+     * Hold back funds for an open buy order.
+     */
+    void reserveFunds(long cents) {
+        reservedCents += cents;
+    }
+
+    /**
+     * Release funds held for an order that filled or was cancelled.
+     */
+    void releaseFunds(long cents) {
+        reservedCents -= cents;
+    }
+
     public double getInitialBalance() {
         return initialBalance;
     }